@@ -0,0 +1,148 @@
+/*
+ * Copyright 2015 CrudFaces / Nicolas Hofstetter (codebulb.ch).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package ch.codebulb.crudfaces.controller;
+
+import ch.codebulb.crudfaces.model.CrudIdentifiable;
+import ch.codebulb.crudfaces.service.CrudService;
+import ch.codebulb.crudfaces.service.Sort;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.primefaces.model.LazyDataModel;
+import org.primefaces.model.SortMeta;
+import org.primefaces.model.SortOrder;
+
+/**
+ * A PrimeFaces {@link LazyDataModel} which delegates paging, sorting and filtering to the
+ * {@link CrudService} of the {@link CrudTableController} provided.<p/>
+ *
+ * The page loaded last is stored as the controller's {@link SimpleCrudController#getEntities()}, thus only the
+ * visible page is ever held in memory, along with the entities added, removed or modified but not yet saved, which are
+ * kept across page loads (a modified entity replaces the entity loaded). Rows are identified by their {@link CrudIdentifiable#getId()}. The dataTable's
+ * column filters are applied on top of the controller's {@link CrudTableController#getFilterValues()}; unless the
+ * dataTable is sorted by a column, the controller's {@link CrudTableController#getSort()} is applied.<p/>
+ *
+ * Get an instance through {@link CrudTableController#getLazyEntities()} and use it like this:<p/>
+<pre class="brush:xml">
+&lt;p:dataTable value=&quot;#{customerController.lazyEntities}&quot; var=&quot;item&quot; lazy=&quot;true&quot;
+             paginator=&quot;true&quot; rows=&quot;20&quot; selection=&quot;#{customerController.selectedEntities}&quot;&gt;
+</pre>
+ *
+ * @author Nicolas Hofstetter (codebulb.ch)
+ * @since 0.2
+ */
+public class CrudLazyDataModel<T extends CrudIdentifiable> extends LazyDataModel<T> {
+    private static final long serialVersionUID = 1L;
+
+    private final CrudTableController<T> controller;
+    private int first;
+
+    public CrudLazyDataModel(CrudTableController<T> controller) {
+        this.controller = controller;
+    }
+
+    @Override
+    public List<T> load(int first, int pageSize, String sortField, SortOrder sortOrder, Map<String, Object> filters) {
+        Sort sort = null;
+        if (sortField != null && sortOrder != SortOrder.UNSORTED) {
+            sort = sortOrder == SortOrder.DESCENDING ? Sort.desc(sortField) : Sort.asc(sortField);
+        }
+        return load(first, pageSize, sort, filters);
+    }
+
+    @Override
+    public List<T> load(int first, int pageSize, List<SortMeta> multiSortMeta, Map<String, Object> filters) {
+        Sort sort = null;
+        if (multiSortMeta != null) {
+            for (SortMeta sortMeta : multiSortMeta) {
+                if (sortMeta.getSortField() == null || sortMeta.getSortOrder() == SortOrder.UNSORTED) {
+                    continue;
+                }
+                boolean ascending = sortMeta.getSortOrder() != SortOrder.DESCENDING;
+                if (sort == null) {
+                    sort = ascending ? Sort.asc(sortMeta.getSortField()) : Sort.desc(sortMeta.getSortField());
+                }
+                else if (ascending) {
+                    sort = sort.thenAsc(sortMeta.getSortField());
+                }
+                else {
+                    sort = sort.thenDesc(sortMeta.getSortField());
+                }
+            }
+        }
+        return load(first, pageSize, sort, filters);
+    }
+
+    private List<T> load(int first, int pageSize, Sort sort, Map<String, Object> filters) {
+        CrudService<T> service = controller.getService();
+        if (sort == null) {
+            sort = controller.getSort();
+        }
+        if (controller.getFilterValues() != null && !controller.getFilterValues().isEmpty()) {
+            Map<String, Object> columnFilters = filters;
+            filters = new HashMap<>(controller.getFilterValues());
+            if (columnFilters != null) {
+                filters.putAll(columnFilters);
+            }
+        }
+        // removed entities are excluded until they are deleted, added entities follow the persisted ones until they are saved
+        List<Long> removedIds = controller.getRemovedIds();
+        List<T> addedEntities = controller.getAddedEntities();
+        long persistedCount = service.count(filters, removedIds);
+        setRowCount((int) persistedCount + addedEntities.size());
+        this.first = first;
+        List<T> page = new ArrayList<>(service.find(first, pageSize, sort, filters, controller.createListFetchGraph(), removedIds));
+        for (int i = (int) Math.max(0, first - persistedCount); i < addedEntities.size() && page.size() < pageSize; i++) {
+            page.add(addedEntities.get(i));
+        }
+        controller.setLoadedPage(page);
+        return controller.getEntities();
+    }
+
+    /**
+     * Returns the index of the first row of the page loaded last.
+     */
+    public int getFirst() {
+        return first;
+    }
+
+    @Override
+    public Object getRowKey(T entity) {
+        return entity.getId();
+    }
+
+    @Override
+    public T getRowData(String rowKey) {
+        if (rowKey == null || rowKey.isEmpty()) {
+            return null;
+        }
+        Long id = Long.valueOf(rowKey);
+        if (controller.getEntities() != null) {
+            T ret = CrudTableController.findEntity(controller.getEntities(), id);
+            if (ret != null) {
+                return ret;
+            }
+        }
+        T added = CrudTableController.findEntity(controller.getAddedEntities(), id);
+        if (added != null) {
+            return added;
+        }
+        T modified = controller.getModifiedEntities().get(id);
+        if (modified != null) {
+            return modified;
+        }
+        // not on the current page (e.g. kept selected across pages)
+        return controller.getService().findById(id);
+    }
+}
@@ -13,28 +13,81 @@
 package ch.codebulb.crudfaces.controller;
 
 import ch.codebulb.crudfaces.model.CrudIdentifiable;
+import ch.codebulb.crudfaces.service.BatchSaveResult;
+import ch.codebulb.crudfaces.service.CrudService;
+import ch.codebulb.crudfaces.service.EntityFilter;
+import ch.codebulb.crudfaces.service.Sort;
+import ch.codebulb.crudfaces.util.ComparatorsHelper;
+import ch.codebulb.crudfaces.util.PropertiesHelper;
+import ch.codebulb.crudfaces.util.StringsHelper;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Calendar;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 import javax.annotation.PostConstruct;
+import javax.faces.context.ExternalContext;
+import javax.persistence.EntityGraph;
+import org.omnifaces.util.Faces;
+import org.omnifaces.util.Messages;
+import org.primefaces.context.RequestContext;
 
 /**
- * A CRUD controller with support for basic PrimeFaces <code>&lt;p:dataTable&gt;</code> operations. 
+ * A CRUD controller with support for basic PrimeFaces <code>&lt;p:dataTable&gt;</code> operations.<p/>
+ * 
+ * In its default mode, all entities are loaded into memory by {@link #initEntities()}. Call {@link #setLazy(boolean)}
+ * (e.g. in a <code>&#064;PostConstruct</code> method) to switch to lazy mode instead, where the dataTable is backed by
+ * {@link #getLazyEntities()} and paging, sorting and filtering are delegated to the service.<p/>
+ * 
+ * In compact state mode (see {@link #setCompactState(boolean)}), the filtered and selected entities are serialized
+ * by their ids only, whereas added and modified entities are kept as a whole so that no pending change is lost.
  *
  * @author Nicolas Hofstetter (codebulb.ch)
  * @since 0.1
  */
 public abstract class CrudTableController<T extends CrudIdentifiable> extends SimpleCrudController<T> {
-    private List<T> filteredEntities;
+    private static final String CHANGES_KEY = "changes";
+    
+    private transient List<T> filteredEntities;
     private Map<String, Object> filterValues = new HashMap<>();
-    private T selectedEntity;
-    private List<T> selectedEntities = new ArrayList<>();
+    private transient T selectedEntity;
+    private transient List<T> selectedEntities = new EntityList<>();
     private T newEntity;
     private boolean edit = true;
-    private List<T> removedEntities = new ArrayList<>();
+    private List<Long> removedIds = new ArrayList<>();
     private Long currentId = -1L;
+    // entities added but not yet saved in lazy mode, kept across page loads
+    private List<T> addedEntities = new ArrayList<>();
+    // persisted entities modified but not yet saved in lazy mode, kept across page loads
+    private Map<Long, T> modifiedEntities = new LinkedHashMap<>();
+    private boolean lazy;
+    private transient CrudLazyDataModel<T> lazyEntities;
+    private transient DirtyTracker<T> dirtyTracker = new DirtyTracker<>();
+    private Set<Long> conflictedIds = new HashSet<>();
+    private Sort sort;
+    // sorted id permutations by sort, valid until entities are added, removed or saved
+    private transient Map<Sort, List<Long>> sortIndexes;
+    private transient boolean sorted;
+    // ids of the selected / filtered entities, pending resolution after deserialization in compact state mode
+    private transient Long compactSelectedId;
+    private transient List<Long> compactSelectedIds;
+    private transient List<Long> compactFilteredIds;
+    private transient boolean compactSelectionPending;
+    private transient int compactRowCount = -1;
     
     /**
      * Initializes a new entity such that a new, empty entity is always available
@@ -45,6 +98,99 @@ public abstract class CrudTableController<T extends CrudIdentifiable> extends Si
         setNewEntity(getService().create());
     }
     
+    /**
+     * Fetches the entities from the service; in lazy mode, nothing is fetched as
+     * {@link #getLazyEntities()} loads one page at a time.
+     */
+    @Override
+    public void initEntities() {
+        if (isLazy()) {
+            return;
+        }
+        if (getListFetchAttributes().length > 0) {
+            setEntities(getService().findAll(createListFetchGraph()));
+        }
+        else {
+            super.initEntities();
+        }
+        resetDirtyTracking();
+        if (sort != null) {
+            applySort();
+        }
+    }
+    
+    /**
+     * Fetches the entities from the service in the background; in lazy mode, nothing is fetched as
+     * {@link #getLazyEntities()} loads one page at a time.
+     */
+    @Override
+    public void initEntitiesAsync() {
+        if (isLazy()) {
+            return;
+        }
+        super.initEntitiesAsync();
+        resetDirtyTracking();
+    }
+    
+    /**
+     * Marks all current entities as unchanged.
+     * 
+     * @see #isDirty(CrudIdentifiable)
+     */
+    protected void resetDirtyTracking() {
+        dirtyTracker.clear();
+        dirtyTracker.snapshotAll(getEntities());
+    }
+    
+    /**
+     * Sets the page of entities loaded in lazy mode. Entities of the previous page which have been modified are kept
+     * (and stay dirty) until they are saved: If they are part of the page provided, they replace the entities loaded.
+     */
+    void setLoadedPage(List<T> page) {
+        if (getEntities() != null) {
+            for (T entity : getEntities()) {
+                if (entity.getId() != null && entity.getId() >= 0 && dirtyTracker.isDirty(entity)) {
+                    modifiedEntities.put(entity.getId(), entity);
+                }
+            }
+        }
+        dirtyTracker.retain(modifiedEntities.keySet());
+        for (int i = 0; i < page.size(); i++) {
+            T modified = page.get(i).getId() != null ? modifiedEntities.get(page.get(i).getId()) : null;
+            if (modified != null) {
+                page.set(i, modified);
+            }
+            else {
+                dirtyTracker.snapshot(page.get(i));
+            }
+        }
+        setEntities(page);
+    }
+    
+    /**
+     * Returns <code>true</code> if the entity provided has been added or modified since it was loaded or saved.
+     */
+    public boolean isDirty(T entity) {
+        return dirtyTracker.isDirty(entity);
+    }
+    
+    /**
+     * Returns the (possibly nested, dot-separated) associations which are displayed in the list view, e.g. as columns
+     * of the dataTable. These are loaded together with the entities rather than lazily one by one for every row.
+     * Returns an empty array by default.
+     */
+    protected String[] getListFetchAttributes() {
+        return new String[0];
+    }
+    
+    /**
+     * Returns the entity graph of {@link #getListFetchAttributes()}, or <code>null</code> if there are none.
+     */
+    EntityGraph<T> createListFetchGraph() {
+        String[] attributes = getListFetchAttributes();
+        return attributes.length > 0 ? getService().createEntityGraph(attributes) : null;
+    }
+    
     /**
      * Deletes the entity provided from the service.
      */
@@ -54,6 +200,8 @@ public abstract class CrudTableController<T extends CrudIdentifiable> extends Si
         
         // delete from in-memory (for AJAX)
         getEntities().remove(entity);
+        invalidateSortIndex();
+        markStructureChanged();
         if (entity.equals(getSelectedEntity())) {
             unselectAll();
         }
@@ -64,33 +212,69 @@ public abstract class CrudTableController<T extends CrudIdentifiable> extends Si
      * Removes the entity provided (operation not persisted).
      */
     public void removeEntity(Long id) {
-        T removedEntity = null;
-        for (T entity : getEntities()) {
-            if (entity.getId().equals(id)) {
-                removedEntity = entity;
-            }
-        }
+        T removedEntity = findEntity(getEntities(), id);
         getEntities().remove(removedEntity);
+        invalidateSortIndex();
+        markStructureChanged();
         if (removedEntity.equals(getSelectedEntity())) {
             unselectAll();
         }
         getSelectedEntities().remove(removedEntity);
         
-        removedEntities.add(removedEntity);
+        markRemoved(removedEntity);
+    }
+    
+    private void markRemoved(T entity) {
+        // entities which have been added and removed again have never been persisted
+        if (entity != null && entity.getId() != null && entity.getId() >= 0) {
+            removedIds.add(entity.getId());
+            modifiedEntities.remove(entity.getId());
+        }
+        addedEntities.remove(entity);
+    }
+    
+    static <T extends CrudIdentifiable> T findEntity(List<T> entities, Long id) {
+        if (entities instanceof EntityList) {
+            return ((EntityList<T>) entities).getById(id);
+        }
+        for (T entity : entities) {
+            if (entity.getId().equals(id)) {
+                return entity;
+            }
+        }
+        return null;
     }
     
     /**
-     * Deletes the {@link #getSelectedEntity()} / {@link #getSelectedEntities()} from the service.
+     * Deletes the {@link #getSelectedEntity()} / {@link #getSelectedEntities()} from the service, one by one with
+     * {@link CrudService#delete(Long)}, or with bulk deletes if {@link #isBulkDelete()} is <code>true</code>.
+     * Selected entities which have been added, but not yet saved are removed only.
      */
     public String deleteSelected() {
-        if (getSelectedEntity() != null && getSelectedEntity().getId() != null) {
-            getService().delete(getSelectedEntity().getId());
+        Set<Long> ids = new LinkedHashSet<>();
+        if (getSelectedEntity() != null && getSelectedEntity().getId() != null && getSelectedEntity().getId() >= 0) {
+            ids.add(getSelectedEntity().getId());
         }
         getEntities().remove(getSelectedEntity());
         for (T selectedEntity : getSelectedEntities()) {
-            getService().delete(selectedEntity.getId());
-            // delete from in-memory (for AJAX)
-            getEntities().remove(selectedEntity);
+            if (selectedEntity.getId() != null && selectedEntity.getId() >= 0) {
+                ids.add(selectedEntity.getId());
+            }
+        }
+        // delete from in-memory (for AJAX)
+        getEntities().removeAll(getSelectedEntities());
+        addedEntities.remove(getSelectedEntity());
+        addedEntities.removeAll(getSelectedEntities());
+        modifiedEntities.keySet().removeAll(ids);
+        invalidateSortIndex();
+        markStructureChanged();
+        if (isBulkDelete()) {
+            getService().deleteByIds(ids, true);
+        }
+        else {
+            for (Long id : ids) {
+                getService().delete(id);
+            }
         }
         
         unselectAll();
@@ -112,17 +296,26 @@ public abstract class CrudTableController<T extends CrudIdentifiable> extends Si
         deleteSelected();
     }
     
+    /**
+     * Returns whether {@link #deleteSelected()} deletes the entities with {@link CrudService#deleteByIds(java.util.Collection, boolean)}
+     * rather than one by one. Bulk deletes issue one statement per {@link CrudService#getMaxInClauseSize()} entities,
+     * but bypass cascading and entity lifecycle callbacks. Returns <code>false</code> by default.
+     */
+    protected boolean isBulkDelete() {
+        return false;
+    }
+    
     /**
      * Removes the {@link #getSelectedEntity()} / {@link #getSelectedEntities()} (operation not persisted).
      */
     public void removeSelectedEntity() {
         getEntities().remove(getSelectedEntity());
-        for (T selectedEntity : getSelectedEntities()) {
-            // delete from in-memory (for AJAX)
-            getEntities().remove(selectedEntity);
-        }
+        // delete from in-memory (for AJAX)
+        getEntities().removeAll(getSelectedEntities());
+        invalidateSortIndex();
+        markStructureChanged();
         
-        removedEntities.add(getSelectedEntity());
+        markRemoved(getSelectedEntity());
         
         unselectAll();
     }
@@ -132,13 +325,15 @@ public abstract class CrudTableController<T extends CrudIdentifiable> extends Si
      */
     public void removeSelectedEntities() {
         getEntities().remove(getSelectedEntity());
+        // delete from in-memory (for AJAX)
+        getEntities().removeAll(getSelectedEntities());
+        invalidateSortIndex();
+        markStructureChanged();
+        
         for (T selectedEntity : getSelectedEntities()) {
-            // delete from in-memory (for AJAX)
-            getEntities().remove(selectedEntity);
+            markRemoved(selectedEntity);
         }
         
-        removedEntities.addAll(getSelectedEntities());
-        
         unselectAll();
     }
     
@@ -150,19 +345,27 @@ public abstract class CrudTableController<T extends CrudIdentifiable> extends Si
         T savedEntity = getService().save(getSelectedEntity());
         if (id == null) {
             getEntities().add(savedEntity);
+            markStructureChanged();
+        }
+        else {
+            markRowChanged(savedEntity.getId());
         }
+        invalidateSortIndex();
+        dirtyTracker.snapshot(savedEntity);
     }
     
     /**
      * Resets {@link #getSelectedEntity()} / {@link #getSelectedEntities()} / {@link #getNewEntity()}.
      */
     public void unselectAll() {
+        compactSelectionPending = false;
         this.selectedEntity = null;
-        this.selectedEntities = new ArrayList<>();
+        this.selectedEntities = new EntityList<>();
         setNewEntity(getService().create());
     }
 
     public T getSelectedEntity() {
+        resolveCompactSelection();
         return selectedEntity;
     }
 
@@ -177,19 +380,20 @@ public abstract class CrudTableController<T extends CrudIdentifiable> extends Si
             return;
         }
 
+        compactSelectionPending = false;
         this.selectedEntity = selectedEntity;
         
         // make selectedEntities a synonym for selectedEntity, but not vice versa
-        List<T> selectedEntities = new ArrayList<>(Arrays.asList(selectedEntity));
-        setSelectedEntities(selectedEntities);
+        setSelectedEntities(new EntityList<>(Arrays.asList(selectedEntity)));
     }
     
     /**
      * Resets {@link #getSelectedEntity()}.
      */
     public void unsetSelectedEntity() {
+        compactSelectionPending = false;
         this.selectedEntity = null;
-        setSelectedEntities(new ArrayList<T>());
+        setSelectedEntities(new EntityList<T>());
     }
     
     /**
@@ -203,6 +407,9 @@ public abstract class CrudTableController<T extends CrudIdentifiable> extends Si
         
         T savedEntity = getService().save(getNewEntity());
         getEntities().add(savedEntity);
+        invalidateSortIndex();
+        markStructureChanged();
+        dirtyTracker.snapshot(savedEntity);
         
         // make sure it now is the new selected entry
         this.selectedEntity = savedEntity;
@@ -215,6 +422,11 @@ public abstract class CrudTableController<T extends CrudIdentifiable> extends Si
     public void addNewEntity() {
         getNewEntity().setId(currentId--);
         getEntities().add(getNewEntity());
+        if (isLazy()) {
+            addedEntities.add(getNewEntity());
+        }
+        invalidateSortIndex();
+        markStructureChanged();
         
         // make sure it now is the new selected entry
         this.selectedEntity = getNewEntity();
@@ -258,29 +470,538 @@ public abstract class CrudTableController<T extends CrudIdentifiable> extends Si
     }
     
     /**
-     * Persists all pending changes to the service.
+     * Persists all pending changes to the service: Added and modified entities are saved in one batch, removed
+     * entities are deleted in one batch. Unchanged entities are not sent to the service.<p/>
+     * 
+     * Entities which have been modified concurrently in the meantime are not saved, but kept as they are, and
+     * reported by {@link #getConflictedIds()} / {@link #isConflicted(CrudIdentifiable)} (see
+     * {@link CrudService#saveAllChecked(java.util.Collection)}), whilst all other entities are saved.<p/>
+     * 
+     * In lazy mode, entities added or modified on other pages than the current one are saved as well.
+     * 
+     * @see #isDirty(CrudIdentifiable)
      */
     public void saveAllEntities() {
+        List<T> changedEntities = new ArrayList<>();
         for (T entity : getEntities()) {
-            if (entity.getId() < 0) {
+            if (dirtyTracker.isDirty(entity)) {
+                changedEntities.add(entity);
+            }
+        }
+        for (T entity : modifiedEntities.values()) {
+            if (!containsInstance(changedEntities, entity)) {
+                changedEntities.add(entity);
+            }
+        }
+        for (T entity : addedEntities) {
+            if (!containsInstance(changedEntities, entity)) {
+                changedEntities.add(entity);
+            }
+        }
+        // temporary ids of new entities are restored if saving fails
+        Long[] temporaryIds = new Long[changedEntities.size()];
+        for (int i = 0; i < changedEntities.size(); i++) {
+            T entity = changedEntities.get(i);
+            if (entity.getId() != null && entity.getId() < 0) {
+                temporaryIds[i] = entity.getId();
                 entity.setId(null);
-                getService().save(entity);
             }
-            else {
-                getService().save(entity);
+        }
+        BatchSaveResult<T> result;
+        try {
+            result = getService().saveAllChecked(changedEntities);
+        }
+        catch (RuntimeException ex) {
+            for (int i = 0; i < changedEntities.size(); i++) {
+                if (temporaryIds[i] != null) {
+                    changedEntities.get(i).setId(temporaryIds[i]);
+                }
+            }
+            throw ex;
+        }
+        addedEntities = new ArrayList<>();
+        // conflicted entities are kept as they are
+        modifiedEntities.keySet().retainAll(result.getConflictedIds());
+        conflictedIds = new HashSet<>(result.getConflictedIds());
+        if (result.hasConflicts()) {
+            Messages.addGlobalError("error.save.conflict", conflictedIds.size());
+        }
+        List<T> savedEntities = result.getSaved();
+        
+        // continue to work with the saved entities
+        List<T> entities = new ArrayList<>(getEntities().size());
+        int changedIndex = 0;
+        int savedIndex = 0;
+        for (T entity : getEntities()) {
+            if (changedIndex < changedEntities.size() && entity == changedEntities.get(changedIndex)) {
+                changedIndex++;
+                if (!isConflicted(entity)) {
+                    entities.add(savedEntities.get(savedIndex++));
+                    continue;
+                }
+            }
+            entities.add(entity);
+        }
+        setEntities(entities);
+        dirtyTracker.snapshotAll(savedEntities);
+        for (T savedEntity : savedEntities) {
+            markRowChanged(savedEntity.getId());
+        }
+        for (Long conflictedId : conflictedIds) {
+            markRowChanged(conflictedId);
+        }
+        
+        getService().deleteAll(removedIds);
+        removedIds = new ArrayList<>();
+    }
+    
+    private static boolean containsInstance(List<?> list, Object element) {
+        for (Object candidate : list) {
+            if (candidate == element) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Writes all entities matching {@link #getFilterValues()} as a CSV file download directly to the response, one
+     * row per entity as it is fetched from the service. Hence, memory consumption stays constant regardless of the number
+     * of entities exported.<p/>
+     * 
+     * Use it as the action of a non-AJAX command component:<p/>
+<pre class="brush:xml">
+&lt;p:commandButton value=&quot;#{i18n['export']}&quot; action=&quot;#{customerController.exportCsv}&quot; ajax=&quot;false&quot;/&gt;
+</pre>
+     * 
+     * @see #getExportProperties()
+     */
+    public void exportCsv() throws IOException {
+        ExternalContext externalContext = Faces.getExternalContext();
+        externalContext.responseReset();
+        externalContext.setResponseContentType("text/csv; charset=UTF-8");
+        externalContext.setResponseHeader("Content-Disposition", "attachment; filename=\"" + getExportFileName() + "\"");
+        
+        Writer writer = new BufferedWriter(new OutputStreamWriter(externalContext.getResponseOutputStream(), "UTF-8"));
+        writeCsv(writer);
+        
+        Faces.responseComplete();
+    }
+    
+    /**
+     * Writes the CSV content of {@link #exportCsv()} to the writer provided: A header line with the
+     * {@link #getExportProperties()}, followed by one line per entity, each line terminated by CRLF.<p/>
+     * 
+     * Every page of {@link #getExportFetchSize()} entities is fetched by a call of
+     * {@link CrudService#findAfter(Long, int, Sort, Map)} of its own, hence in a transaction of its own, and only
+     * one page is held in memory at once.
+     */
+    void writeCsv(Writer writer) throws IOException {
+        List<String> properties = getExportProperties();
+        writeCsvLine(writer, properties);
+        Map<String, Object> filters = getFilterValues();
+        int fetchSize = getExportFetchSize();
+        List<String> values = new ArrayList<>(properties.size());
+        Long lastId = null;
+        List<T> page;
+        do {
+            page = getService().findAfter(lastId, fetchSize, null, filters);
+            for (T entity : page) {
+                values.clear();
+                for (String property : properties) {
+                    values.add(formatExportValue(PropertiesHelper.getProperty(entity, property)));
+                }
+                writeCsvLine(writer, values);
+            }
+            if (!page.isEmpty()) {
+                lastId = page.get(page.size() - 1).getId();
+            }
+        } while (page.size() == fetchSize);
+        writer.flush();
+    }
+    
+    private static void writeCsvLine(Writer writer, List<String> values) throws IOException {
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writer.write(StringsHelper.escapeCsv(values.get(i)));
+        }
+        writer.write("\r\n");
+    }
+    
+    /**
+     * Returns the (possibly nested, dot-separated) properties exported by {@link #exportCsv()} as columns.
+     * Defaults to all readable properties of the entity type with a basic type (e.g. a String, a number, a date
+     * or an enum), hence associations and collections, which may not be loaded, are not exported by default.
+     */
+    protected List<String> getExportProperties() {
+        Class<T> modelClass = getService().getModelClass();
+        List<String> ret = new ArrayList<>();
+        for (String property : PropertiesHelper.getPropertyNames(modelClass)) {
+            if (isBasicType(PropertiesHelper.getPropertyType(modelClass, property))) {
+                ret.add(property);
+            }
+        }
+        return ret;
+    }
+    
+    private static boolean isBasicType(Class<?> type) {
+        return type.isPrimitive() || type.isEnum() || Number.class.isAssignableFrom(type) || CharSequence.class.isAssignableFrom(type)
+                || type == Boolean.class || type == Character.class || Date.class.isAssignableFrom(type)
+                || Calendar.class.isAssignableFrom(type) || type == UUID.class || type.getName().startsWith("java.time.");
+    }
+    
+    /**
+     * Formats a property value exported by {@link #exportCsv()}.
+     */
+    protected String formatExportValue(Object value) {
+        if (value == null) {
+            return "";
+        }
+        if (value instanceof Date) {
+            return StringsHelper.formatDate((Date) value);
+        }
+        return value.toString();
+    }
+    
+    /**
+     * Returns the file name of the file exported by {@link #exportCsv()}.
+     */
+    protected String getExportFileName() {
+        return getService().getModelClass().getSimpleName() + ".csv";
+    }
+    
+    /**
+     * Returns the number of entities {@link #exportCsv()} fetches at once. Defaults to 500.
+     */
+    protected int getExportFetchSize() {
+        return 500;
+    }
+    
+    /**
+     * Returns the ids of the entities removed, but not yet deleted.
+     */
+    List<Long> getRemovedIds() {
+        return removedIds;
+    }
+    
+    /**
+     * Returns the entities added, but not yet saved in lazy mode.
+     */
+    List<T> getAddedEntities() {
+        return addedEntities;
+    }
+    
+    /**
+     * Returns the persisted entities modified, but not yet saved in lazy mode, by id.
+     */
+    Map<Long, T> getModifiedEntities() {
+        return modifiedEntities;
+    }
+    
+    /**
+     * Returns the {@link CrudLazyDataModel} to back a lazy <code>&lt;p:dataTable&gt;</code> in lazy mode.
+     */
+    public CrudLazyDataModel<T> getLazyEntities() {
+        if (lazyEntities == null) {
+            lazyEntities = new CrudLazyDataModel<>(this);
+            if (compactRowCount >= 0) {
+                lazyEntities.setRowCount(compactRowCount);
+                compactRowCount = -1;
             }
         }
-        for (T removedEntity : getRemovedEntities()) {
-            getService().delete(removedEntity.getId());
+        return lazyEntities;
+    }
+
+    public boolean isLazy() {
+        return lazy;
+    }
+
+    /**
+     * Activates / deactivates lazy mode.
+     * 
+     * @see #getLazyEntities()
+     */
+    public void setLazy(boolean lazy) {
+        this.lazy = lazy;
+    }
+    
+    /**
+     * Sorts the entities by the (possibly nested, dot-separated) property provided in ascending order; or in descending
+     * order if they are currently sorted by this property in ascending order. Use it e.g. as the action of a column
+     * header link:<p/>
+<pre class="brush:xml">
+&lt;f:facet name=&quot;header&quot;&gt;
+    &lt;p:commandLink value=&quot;#{i18n['lastName']}&quot; action=&quot;#{customerController.sortBy('lastName')}&quot; update=&quot;table&quot;/&gt;
+&lt;/f:facet&gt;
+</pre>
+     * 
+     * @see #sortBy(Sort)
+     */
+    public void sortBy(String property) {
+        boolean ascending = sort == null || !sort.equals(Sort.asc(property));
+        sortBy(property, ascending);
+    }
+    
+    /**
+     * Sorts the entities by the (possibly nested, dot-separated) property provided.
+     * 
+     * @see #sortBy(Sort)
+     */
+    public void sortBy(String property, boolean ascending) {
+        sortBy(ascending ? Sort.asc(property) : Sort.desc(property));
+    }
+    
+    /**
+     * Sorts the entities (and the filtered entities) by the sort provided. The comparators are built once per property
+     * (see {@link ComparatorsHelper}), and the resulting order is cached per sort until entities are added, removed or
+     * saved: Sorting by the current sort again does nothing, and sorting by a previous sort again only restores its order.
+     * In lazy mode, the sort is applied by the service when the next page is loaded, unless the dataTable is sorted by
+     * a column.<p/>
+     * 
+     * <b>Note:</b> Changes to the entities which are not saved don't invalidate the cached order.
+     */
+    public void sortBy(Sort sort) {
+        if (sort.equals(this.sort) && sorted) {
+            return;
+        }
+        this.sort = sort;
+        if (!isLazy()) {
+            applySort();
+        }
+    }
+    
+    private void applySort() {
+        List<T> entities = getEntities();
+        if (entities == null) {
+            return;
+        }
+        if (sortIndexes == null) {
+            sortIndexes = new HashMap<>();
+        }
+        
+        List<T> ret = new ArrayList<>(entities.size());
+        List<Long> index = sortIndexes.get(sort);
+        if (index != null && index.size() == entities.size()) {
+            for (Long id : index) {
+                ret.add(findEntity(entities, id));
+            }
+        }
+        else {
+            ret.addAll(entities);
+            Collections.sort(ret, ComparatorsHelper.getComparator(getService().getModelClass(), sort));
+            index = getIds(ret);
+            // entities without an id can't be restored by id
+            if (index.size() == ret.size()) {
+                sortIndexes.put(sort, index);
+            }
+        }
+        super.setEntities(ret);
+        markStructureChanged();
+        
+        if (getFilteredEntities() != null) {
+            EntityList<T> filtered = new EntityList<>(getFilteredEntities());
+            List<T> sortedFiltered = new ArrayList<>(filtered.size());
+            for (T entity : getEntities()) {
+                if (filtered.contains(entity)) {
+                    sortedFiltered.add(entity);
+                }
+            }
+            setFilteredEntities(sortedFiltered);
+        }
+        sorted = true;
+    }
+    
+    private void invalidateSortIndex() {
+        sortIndexes = null;
+        sorted = false;
+    }
+    
+    /**
+     * Returns the sort applied by {@link #sortBy(Sort)}, or <code>null</code> if the entities have not been sorted.
+     */
+    public Sort getSort() {
+        return sort;
+    }
+    
+    /**
+     * Navigates in the order of {@link #getSort()}.
+     */
+    @Override
+    protected Sort getNavigationSort() {
+        return getSort();
+    }
+    
+    /**
+     * Sets the entities and invalidates their cached sort order.
+     */
+    @Override
+    public void setEntities(List<T> entities) {
+        super.setEntities(entities);
+        invalidateSortIndex();
+    }
+    
+    /**
+     * Filters the entities by {@link #getFilterValues()} and stores the result as {@link #getFilteredEntities()}
+     * (<code>null</code> if nothing is filtered). The filter
+     * values are compiled once and matched against all entities in a single pass (see {@link EntityFilter}), rather than
+     * evaluating a <code>filterFunction</code> for every row and column. In lazy mode, the filter values are applied by the
+     * service when the next page is loaded.<p/>
+     * 
+     * Use it e.g. as the listener of the filter components bound to <code>filterValues</code>:<p/>
+<pre class="brush:xml">
+&lt;pe:triStateCheckbox value=&quot;#{customerController.filterValues['premium']}&quot;&gt;
+    &lt;p:ajax listener=&quot;#{customerController.applyFilterValues}&quot; update=&quot;table&quot;/&gt;
+&lt;/pe:triStateCheckbox&gt;
+</pre>
+     */
+    public void applyFilterValues() {
+        if (isLazy()) {
+            return;
+        }
+        EntityFilter<T> filter = createEntityFilter();
+        setFilteredEntities(filter.isEmpty() ? null : filter.filter(getEntities()));
+        markStructureChanged();
+    }
+    
+    /**
+     * Compiles {@link #getFilterValues()} into an {@link EntityFilter}.
+     */
+    protected EntityFilter<T> createEntityFilter() {
+        return EntityFilter.compile(getService().getModelClass(), getFilterValues());
+    }
+    
+    /**
+     * Records that the row of the entity with the id provided has been changed by the current request.
+     * 
+     * @see #getChangedRowIds()
+     */
+    protected void markRowChanged(Long id) {
+        invalidateMemoized();
+        if (id != null) {
+            getChanges().rowIds.add(id);
+        }
+    }
+    
+    /**
+     * Records that rows have been added, removed or reordered by the current request, hence the whole table
+     * must be updated.
+     * 
+     * @see #isStructureChanged()
+     */
+    protected void markStructureChanged() {
+        invalidateMemoized();
+        getChanges().structureChanged = true;
+    }
+    
+    private Changes getChanges() {
+        // changes are recorded per request
+        Changes ret = (Changes) getRequestState().get(CHANGES_KEY);
+        if (ret == null) {
+            ret = new Changes();
+            getRequestState().put(CHANGES_KEY, ret);
+        }
+        return ret;
+    }
+    
+    /**
+     * The rows changed by the actions of the current request.
+     */
+    private static class Changes {
+        private final Set<Long> rowIds = new LinkedHashSet<>();
+        private boolean structureChanged;
+    }
+    
+    /**
+     * Returns the ids of the entities whose rows have been changed by the actions of the current request, e.g. by
+     * {@link #saveSelectedEntity()} or {@link #saveAllEntities()}.
+     * 
+     * @see #getRowUpdateTargets(String, String...)
+     */
+    public Set<Long> getChangedRowIds() {
+        return Collections.unmodifiableSet(getChanges().rowIds);
+    }
+    
+    /**
+     * Returns <code>true</code> if rows have been added, removed or reordered by the actions of the current request,
+     * e.g. by {@link #addNewEntity()}, {@link #removeEntity(Long)} or {@link #sortBy(Sort)}.
+     */
+    public boolean isStructureChanged() {
+        return getChanges().structureChanged;
+    }
+    
+    /**
+     * Returns the client ids of the components of the dataTable provided which display the rows changed by the current
+     * request, i.e. <code>tableClientId:rowIndex:componentId</code> for every changed row and every component id provided.
+     * If rows have been added, removed or reordered, the dataTable itself is returned instead.
+     * 
+     * @param tableClientId the client id of the dataTable, e.g. <code>form:table</code>
+     * @param componentIds the ids of the components within a row to update, e.g. the ids of the column contents
+     * @see #updateChangedRows(String, String...)
+     */
+    public List<String> getRowUpdateTargets(String tableClientId, String... componentIds) {
+        if (isStructureChanged()) {
+            return Collections.singletonList(tableClientId);
         }
-        setRemovedEntities(new ArrayList<T>());
+        List<T> rows = isLazy() || getFilteredEntities() == null ? getEntities() : getFilteredEntities();
+        int first = isLazy() ? getLazyEntities().getFirst() : 0;
+        List<String> ret = new ArrayList<>();
+        for (Long id : getChangedRowIds()) {
+            T entity = findEntity(rows, id);
+            if (entity == null) {
+                continue;
+            }
+            int rowIndex = first + rows.indexOf(entity);
+            for (String componentId : componentIds) {
+                ret.add(tableClientId + ":" + rowIndex + ":" + componentId);
+            }
+        }
+        return ret;
+    }
+    
+    /**
+     * Updates only the components of the rows changed by the current request through the PrimeFaces AJAX response,
+     * rather than the whole dataTable. Invoke it at the end of an action, e.g.:<p/>
+<pre class="brush:java">
+public void save() {
+    saveSelectedEntity();
+    updateChangedRows("form:table", "name", "premium");
+}
+</pre>
+     * 
+     * @see #getRowUpdateTargets(String, String...)
+     */
+    public void updateChangedRows(String tableClientId, String... componentIds) {
+        RequestContext.getCurrentInstance().update(getRowUpdateTargets(tableClientId, componentIds));
+    }
+    
+    /**
+     * Returns the ids of the entities which have not been saved by the last {@link #saveAllEntities()} invocation
+     * because they have been modified concurrently.
+     */
+    public Set<Long> getConflictedIds() {
+        return conflictedIds;
+    }
+    
+    /**
+     * Returns <code>true</code> if the entity provided has not been saved by the last {@link #saveAllEntities()}
+     * invocation because it has been modified concurrently, e.g. for row styling.
+     */
+    public boolean isConflicted(T entity) {
+        return entity.getId() != null && conflictedIds.contains(entity.getId());
     }
     
     public List<T> getFilteredEntities() {
+        if (compactFilteredIds != null) {
+            filteredEntities = resolveEntities(compactFilteredIds);
+            compactFilteredIds = null;
+        }
         return filteredEntities;
     }
 
     public void setFilteredEntities(List<T> filteredEntities) {
+        compactFilteredIds = null;
         this.filteredEntities = filteredEntities;
     }
 
@@ -293,11 +1014,16 @@ public abstract class CrudTableController<T extends CrudIdentifiable> extends Si
     }
 
     public List<T> getSelectedEntities() {
+        resolveCompactSelection();
         return selectedEntities;
     }
 
+    /**
+     * Sets the selected entities. Unless <code>null</code>, they are held in an {@link EntityList}.
+     */
     public void setSelectedEntities(List<T> selectedEntities) {
-        this.selectedEntities = selectedEntities;
+        resolveCompactSelection();
+        this.selectedEntities = selectedEntities == null || selectedEntities instanceof EntityList ? selectedEntities : new EntityList<>(selectedEntities);
     }
 
     public T getNewEntity() {
@@ -316,11 +1042,110 @@ public abstract class CrudTableController<T extends CrudIdentifiable> extends Si
         this.edit = edit;
     }
 
-    private List<T> getRemovedEntities() {
-        return removedEntities;
+    
+    /**
+     * In compact state mode, an entity is serialized as a whole if it is dirty.
+     * 
+     * @see #isDirty(CrudIdentifiable)
+     */
+    @Override
+    protected boolean isSerializedAsWhole(T entity) {
+        return dirtyTracker.isDirty(entity);
+    }
+    
+    /**
+     * Marks the entities loaded as unchanged.
+     */
+    @Override
+    protected void entitiesLoaded(List<T> loaded) {
+        dirtyTracker.snapshotAll(loaded);
+        invalidateSortIndex();
+    }
+    
+    private void resolveCompactSelection() {
+        if (!compactSelectionPending) {
+            return;
+        }
+        compactSelectionPending = false;
+        selectedEntity = compactSelectedId != null ? resolveEntity(compactSelectedId) : null;
+        setSelectedEntities(compactSelectedIds != null ? resolveEntities(compactSelectedIds) : null);
+    }
+    
+    private List<T> resolveEntities(List<Long> ids) {
+        List<T> ret = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            T entity = resolveEntity(id);
+            if (entity != null) {
+                ret.add(entity);
+            }
+        }
+        return ret;
+    }
+    
+    private T resolveEntity(Long id) {
+        T ret = getEntities() != null ? findEntity(getEntities(), id) : null;
+        if (ret == null && id >= 0) {
+            // not part of the entities (e.g. selected on another page in lazy mode)
+            ret = getService().findById(id);
+        }
+        return ret;
+    }
+    
+    private static List<Long> getIds(List<? extends CrudIdentifiable> entities) {
+        if (entities == null) {
+            return null;
+        }
+        List<Long> ret = new ArrayList<>(entities.size());
+        for (CrudIdentifiable entity : entities) {
+            if (entity != null && entity.getId() != null) {
+                ret.add(entity.getId());
+            }
+        }
+        return ret;
+    }
+    
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        if (!isCompactState()) {
+            out.writeObject(getFilteredEntities());
+            out.writeObject(getSelectedEntity());
+            out.writeObject(getSelectedEntities());
+            out.writeObject(dirtyTracker);
+            out.writeObject(lazyEntities);
+        }
+        else {
+            // entities are resolved by id upon deserialization, hence entities without an id are dropped
+            out.writeObject(compactFilteredIds != null ? compactFilteredIds : getIds(filteredEntities));
+            if (compactSelectionPending) {
+                out.writeObject(compactSelectedId);
+                out.writeObject(compactSelectedIds);
+            }
+            else {
+                out.writeObject(selectedEntity != null ? selectedEntity.getId() : null);
+                out.writeObject(getIds(selectedEntities));
+            }
+            out.writeInt(lazyEntities != null ? lazyEntities.getRowCount() : compactRowCount);
+        }
     }
 
-    private void setRemovedEntities(List<T> removedEntities) {
-        this.removedEntities = removedEntities;
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (!isCompactState()) {
+            filteredEntities = (List<T>) in.readObject();
+            selectedEntity = (T) in.readObject();
+            selectedEntities = (List<T>) in.readObject();
+            dirtyTracker = (DirtyTracker<T>) in.readObject();
+            lazyEntities = (CrudLazyDataModel<T>) in.readObject();
+            compactRowCount = -1;
+        }
+        else {
+            compactFilteredIds = (List<Long>) in.readObject();
+            compactSelectedId = (Long) in.readObject();
+            compactSelectedIds = (List<Long>) in.readObject();
+            compactSelectionPending = true;
+            compactRowCount = in.readInt();
+            // entities are snapshot again once they are reloaded
+            dirtyTracker = new DirtyTracker<>();
+        }
     }
 }
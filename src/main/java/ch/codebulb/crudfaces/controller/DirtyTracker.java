@@ -0,0 +1,307 @@
+/*
+ * Copyright 2015 CrudFaces / Nicolas Hofstetter (codebulb.ch).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package ch.codebulb.crudfaces.controller;
+
+import ch.codebulb.crudfaces.model.CrudIdentifiable;
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Currency;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.persistence.Persistence;
+
+/**
+ * <p>
+ * Detects which entities have been modified since they were loaded, by comparing their current field values with
+ * a snapshot taken at load time. Used by {@link CrudTableController#saveAllEntities()} to save changed entities only.</p>
+ * <p>
+ * All non-static, non-transient fields are compared by value: Embeddables and other value objects are compared
+ * field by field (recursively), and mutable JDK values such as {@link Date}, {@link Calendar}, arrays and plain
+ * <code>java.util</code> collections and maps are copied into the snapshot, so that in-place modifications are detected.
+ * Referenced entities are compared by identity.</p>
+ * <p>
+ * Collections provided by the JPA provider (which typically hold lazily loaded associations) are copied only if they
+ * are loaded; an unloaded collection is unchanged as long as it is the same instance. Other JDK types are compared by
+ * identity as well. Entities without a snapshot, including new entities (with a <code>null</code> or negative id),
+ * are always considered dirty, and thus always saved.</p>
+ *
+ * @author Nicolas Hofstetter (codebulb.ch)
+ * @since 0.2
+ */
+public class DirtyTracker<T extends CrudIdentifiable> implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final ConcurrentMap<Class<?>, Field[]> FIELDS = new ConcurrentHashMap<>();
+    private static final Set<Class<?>> IMMUTABLE_TYPES = new HashSet<Class<?>>(Arrays.asList(
+            String.class, Boolean.class, Character.class, Byte.class, Short.class, Integer.class, Long.class,
+            Float.class, Double.class, BigInteger.class, BigDecimal.class, UUID.class, Locale.class, Currency.class, Class.class));
+
+    private final Map<Long, Object[]> snapshots = new HashMap<>();
+
+    /**
+     * Takes a snapshot of the entity provided, marking it as not dirty.
+     */
+    public void snapshot(T entity) {
+        if (isNew(entity)) {
+            return;
+        }
+        snapshots.put(entity.getId(), readFields(entity));
+    }
+
+    public void snapshotAll(Collection<? extends T> entities) {
+        for (T entity : entities) {
+            snapshot(entity);
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the entity provided is new, has no snapshot, has been modified since its snapshot
+     * was taken, or holds values which can't be compared.
+     */
+    public boolean isDirty(T entity) {
+        if (isNew(entity)) {
+            return true;
+        }
+        Object[] snapshot = snapshots.get(entity.getId());
+        if (snapshot == null) {
+            return true;
+        }
+        return !Arrays.deepEquals(snapshot, readFields(entity));
+    }
+
+    /**
+     * Returns all dirty entities of the entities provided, in order.
+     */
+    public List<T> getDirty(Collection<? extends T> entities) {
+        List<T> ret = new ArrayList<>();
+        for (T entity : entities) {
+            if (isDirty(entity)) {
+                ret.add(entity);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Discards the snapshot of the entity with the id provided, marking it as dirty.
+     */
+    public void forget(Long id) {
+        snapshots.remove(id);
+    }
+
+    /**
+     * Discards the snapshots of all entities except the entities with the ids provided.
+     */
+    public void retain(Collection<Long> ids) {
+        snapshots.keySet().retainAll(ids);
+    }
+
+    /**
+     * Discards all snapshots.
+     */
+    public void clear() {
+        snapshots.clear();
+    }
+
+    private static boolean isNew(CrudIdentifiable entity) {
+        return entity.getId() == null || entity.getId() < 0;
+    }
+
+    private static Object[] readFields(Object entity) {
+        Set<Object> path = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        path.add(entity);
+        return readFields(entity, path);
+    }
+
+    private static Object[] readFields(Object object, Set<Object> path) {
+        Field[] fields = getFields(object.getClass());
+        Object[] ret = new Object[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            try {
+                ret[i] = snapshotValue(fields[i].get(object), path);
+            } catch (IllegalAccessException ex) {
+                throw new IllegalStateException("Cannot read field " + fields[i] + " of " + object, ex);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Returns a copy of the value provided which is equal to another copy if and only if the values are equal,
+     * an {@link IdentitySnapshot} if the value can't be copied, or an {@link Incomparable} for a cycle.
+     * 
+     * @param path the values currently being copied, to detect cycles
+     */
+    private static Object snapshotValue(Object value, Set<Object> path) {
+        if (value == null || value instanceof CrudIdentifiable || value instanceof Enum || isImmutable(value.getClass())) {
+            return value;
+        }
+        if (value instanceof Date) {
+            return ((Date) value).clone();
+        }
+        if (value instanceof Calendar) {
+            return ((Calendar) value).clone();
+        }
+        Class<?> type = value.getClass();
+        if (type.isArray() && type.getComponentType().isPrimitive()) {
+            int length = Array.getLength(value);
+            Object ret = Array.newInstance(type.getComponentType(), length);
+            System.arraycopy(value, 0, ret, 0, length);
+            return ret;
+        }
+        
+        if (!path.add(value)) {
+            return new Incomparable();
+        }
+        try {
+            if (type.isArray()) {
+                return new ValueSnapshot(type, snapshotValues(Arrays.asList((Object[]) value), path));
+            }
+            if (value instanceof Collection || value instanceof Map) {
+                if (!type.getName().startsWith("java.util.") && !Persistence.getPersistenceUtil().isLoaded(value)) {
+                    // a lazily loaded association which is not loaded yet can't have been changed
+                    return new IdentitySnapshot(value);
+                }
+                Collection<?> elements = value instanceof Map ? flatten((Map<?, ?>) value) : (Collection<?>) value;
+                return new ValueSnapshot(type, snapshotValues(elements, path));
+            }
+            if (type.getName().startsWith("java.") || type.getName().startsWith("javax.")) {
+                return new IdentitySnapshot(value);
+            }
+            // embeddables and other value objects
+            return new ValueSnapshot(type, readFields(value, path));
+        }
+        finally {
+            path.remove(value);
+        }
+    }
+
+    private static Object[] snapshotValues(Collection<?> values, Set<Object> path) {
+        Object[] ret = new Object[values.size()];
+        int i = 0;
+        for (Object value : values) {
+            ret[i++] = snapshotValue(value, path);
+        }
+        return ret;
+    }
+
+    private static List<Object> flatten(Map<?, ?> map) {
+        List<Object> ret = new ArrayList<>(map.size() * 2);
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            ret.add(entry.getKey());
+            ret.add(entry.getValue());
+        }
+        return ret;
+    }
+
+    private static boolean isImmutable(Class<?> type) {
+        return IMMUTABLE_TYPES.contains(type) || type.getName().startsWith("java.time.");
+    }
+
+    private static Field[] getFields(Class<?> type) {
+        Field[] ret = FIELDS.get(type);
+        if (ret == null) {
+            List<Field> fields = new ArrayList<>();
+            for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+                for (Field field : current.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    fields.add(field);
+                }
+            }
+            ret = fields.toArray(new Field[fields.size()]);
+            FIELDS.putIfAbsent(type, ret);
+        }
+        return ret;
+    }
+
+    /**
+     * The copy of a value object, array, collection or map: its type and the copies of its field values / elements.
+     */
+    private static class ValueSnapshot implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final Class<?> type;
+        private final Object[] values;
+
+        public ValueSnapshot(Class<?> type, Object[] values) {
+            this.type = type;
+            this.values = values;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * type.hashCode() + Arrays.deepHashCode(values);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ValueSnapshot)) {
+                return false;
+            }
+            ValueSnapshot other = (ValueSnapshot) obj;
+            return type == other.type && Arrays.deepEquals(values, other.values);
+        }
+    }
+
+    /**
+     * Stands for a value which can't be copied; it's only equal to a snapshot of the very same instance. As the instance
+     * isn't serialized, a deserialized snapshot is never equal to another snapshot.
+     */
+    private static class IdentitySnapshot implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Object value;
+
+        public IdentitySnapshot(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(value);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof IdentitySnapshot && value != null && ((IdentitySnapshot) obj).value == value;
+        }
+    }
+
+    /**
+     * Stands for a value which can't be copied; it's only equal to itself, hence it's never equal to another snapshot.
+     */
+    private static class Incomparable implements Serializable {
+        private static final long serialVersionUID = 1L;
+    }
+}
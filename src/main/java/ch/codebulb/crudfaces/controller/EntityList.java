@@ -0,0 +1,241 @@
+/*
+ * Copyright 2015 CrudFaces / Nicolas Hofstetter (codebulb.ch).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package ch.codebulb.crudfaces.controller;
+
+import ch.codebulb.crudfaces.model.CrudIdentifiable;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * <p>
+ * An insertion-ordered {@link java.util.List} of entities which is indexed by {@link CrudIdentifiable#getId()},
+ * used by {@link CrudTableController} to hold its working set.</p>
+ * <p>
+ * <code>contains()</code>, <code>indexOf()</code>, <code>remove(Object)</code> and {@link #getById(Long)} run
+ * in constant time: Removed elements are only marked as removed and the list is compacted once, upon the next positional
+ * access. Hence, removing <i>m</i> entities from a list of <i>n</i> entities costs <i>O(n + m)</i> overall rather than
+ * <i>O(n &middot; m)</i>.</p>
+ * <p>
+ * Entities are identified by their id: <code>remove(entity)</code> removes the entity with the same id. Entities
+ * without an id (and <code>null</code> elements) are supported, but not indexed. <b>Note:</b> If the id of an entity
+ * changes while it is in the list, call {@link #reindex()}.</p>
+ *
+ * @author Nicolas Hofstetter (codebulb.ch)
+ * @since 0.2
+ */
+public class EntityList<T extends CrudIdentifiable> extends AbstractList<T> implements RandomAccess, Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final Object REMOVED = new Object();
+
+    private ArrayList<Object> slots;
+    private transient Map<Long, Integer> indexById;
+    private transient int removedCount;
+    // elements without an id, and elements with an id which is already indexed
+    private transient int unindexedCount;
+
+    public EntityList() {
+        this.slots = new ArrayList<>();
+        reindex();
+    }
+
+    public EntityList(Collection<? extends T> entities) {
+        this.slots = new ArrayList<Object>(entities);
+        reindex();
+    }
+
+    /**
+     * Returns the entity with the id provided, or <code>null</code> if there is no such entity in this list.
+     */
+    public T getById(Long id) {
+        Integer index = indexById.get(id);
+        return index != null ? (T) slots.get(index) : null;
+    }
+
+    /**
+     * Removes the entity with the id provided and returns it, or <code>null</code> if there is no such entity in this list.
+     */
+    public T removeById(Long id) {
+        Integer index = indexById.remove(id);
+        if (index == null) {
+            return null;
+        }
+        T ret = (T) slots.set(index, REMOVED);
+        removedCount++;
+        modCount++;
+        return ret;
+    }
+
+    /**
+     * Rebuilds the id index, e.g. after the ids of contained entities changed.
+     */
+    public final void reindex() {
+        if (removedCount > 0) {
+            ArrayList<Object> compacted = new ArrayList<>(slots.size() - removedCount);
+            for (Object slot : slots) {
+                if (slot != REMOVED) {
+                    compacted.add(slot);
+                }
+            }
+            slots = compacted;
+            removedCount = 0;
+        }
+        indexById = new HashMap<>(Math.max(16, slots.size() * 4 / 3 + 1));
+        unindexedCount = 0;
+        for (int i = 0; i < slots.size(); i++) {
+            index(slots.get(i), i);
+        }
+    }
+
+    private void index(Object element, int index) {
+        Long id = getId(element);
+        if (id == null || indexById.containsKey(id)) {
+            unindexedCount++;
+        }
+        else {
+            indexById.put(id, index);
+        }
+    }
+
+    private void unindex(Object element, int index) {
+        Long id = getId(element);
+        if (id != null && Integer.valueOf(index).equals(indexById.get(id))) {
+            indexById.remove(id);
+        }
+        else {
+            unindexedCount--;
+        }
+    }
+
+    private static Long getId(Object element) {
+        return element instanceof CrudIdentifiable ? ((CrudIdentifiable) element).getId() : null;
+    }
+
+    private void compact() {
+        if (removedCount > 0) {
+            reindex();
+        }
+    }
+
+    @Override
+    public T get(int index) {
+        compact();
+        return (T) slots.get(index);
+    }
+
+    @Override
+    public int size() {
+        return slots.size() - removedCount;
+    }
+
+    @Override
+    public T set(int index, T element) {
+        compact();
+        T ret = (T) slots.set(index, element);
+        unindex(ret, index);
+        index(element, index);
+        return ret;
+    }
+
+    @Override
+    public void add(int index, T element) {
+        compact();
+        slots.add(index, element);
+        modCount++;
+        if (index == slots.size() - 1) {
+            index(element, index);
+        }
+        else {
+            reindex();
+        }
+    }
+
+    @Override
+    public T remove(int index) {
+        compact();
+        T ret = (T) slots.remove(index);
+        modCount++;
+        if (index == slots.size()) {
+            unindex(ret, index);
+        }
+        else {
+            reindex();
+        }
+        return ret;
+    }
+
+    @Override
+    public boolean remove(Object element) {
+        Long id = getId(element);
+        if (id != null && indexById.containsKey(id)) {
+            removeById(id);
+            return true;
+        }
+        if (unindexedCount == 0) {
+            return false;
+        }
+        return super.remove(element);
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> elements) {
+        boolean ret = false;
+        for (Object element : elements) {
+            ret |= remove(element);
+        }
+        return ret;
+    }
+
+    @Override
+    public boolean contains(Object element) {
+        Long id = getId(element);
+        if (id != null && indexById.containsKey(id)) {
+            return true;
+        }
+        return unindexedCount > 0 && super.contains(element);
+    }
+
+    @Override
+    public int indexOf(Object element) {
+        compact();
+        Long id = getId(element);
+        if (id != null && indexById.containsKey(id)) {
+            return indexById.get(id);
+        }
+        return unindexedCount > 0 ? super.indexOf(element) : -1;
+    }
+
+    @Override
+    public void clear() {
+        slots = new ArrayList<>();
+        modCount++;
+        reindex();
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        compact();
+        out.defaultWriteObject();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        reindex();
+    }
+}
@@ -14,31 +14,77 @@ package ch.codebulb.crudfaces.controller;
 
 import ch.codebulb.crudfaces.model.CrudIdentifiable;
 import ch.codebulb.crudfaces.service.CrudService;
+import ch.codebulb.crudfaces.service.Sort;
 import ch.codebulb.crudfaces.util.FacesHelper;
 import ch.codebulb.crudfaces.util.StringsHelper;
 import java.beans.Introspector;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import javax.annotation.PreDestroy;
 import javax.faces.component.UIComponent;
 import javax.faces.component.UIInput;
 import javax.faces.component.visit.VisitCallback;
 import javax.faces.component.visit.VisitContext;
 import javax.faces.component.visit.VisitResult;
+import javax.faces.context.FacesContext;
+import javax.faces.event.PhaseId;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
 import org.omnifaces.util.Components;
 import org.omnifaces.util.Faces;
 import org.omnifaces.util.Messages;
 
 /**
- * Basic implementation of a CRUD controller.
+ * Basic implementation of a CRUD controller.<p/>
+ * 
+ * In compact state mode (see {@link #setCompactState(boolean)}), only the ids of unchanged entities are serialized
+ * with the view / session state; the entities are reloaded from the service upon their first access after
+ * deserialization.
  * 
  * @author Nicolas Hofstetter (codebulb.ch)
  * @since 0.1
  */
 public abstract class SimpleCrudController<T extends CrudIdentifiable> implements Serializable {    
-    private List<T> entities;
-    private Long currentEntityId;
+    /**
+     * The GET parameter which makes {@link #initCurrentEntity()} show the <code>next</code> or <code>previous</code>
+     * neighbour of the entity with the id provided.
+     */
+    public static final String NEIGHBOUR_PARAM = "neighbour";
+    private static final String MEMO_KEY = "memo";
+    
+    private transient List<T> entities;
+    // entities and ids of unchanged entities, pending reload after deserialization in compact state mode
+    private transient Object[] compactEntities;
+    private boolean compactState;
+    // background loading started by initEntitiesAsync(), not serialized
+    private transient Future<?> loading;
+    private transient Queue<T> loadedEntities;
+    private volatile Long currentEntityId;
     private T currentEntity;
     private NavigationOutcome currentEntityLoadedOutcome;
+    private volatile int prefetchCount;
+    // neighbours of the current entity, prefetched in the background
+    private transient Future<?> prefetching;
+    private transient Map<Long, T> prefetchedEntities;
+    private transient volatile List<Long> nextIds;
+    private transient volatile List<Long> previousIds;
+    // state of the current request if there is no FacesContext (see getRequestState())
+    private transient Map<String, Object> requestStateWithoutContext;
     
     /**
      * Returns the service instance. The service should be dependency-injected into this controller.
@@ -51,7 +97,143 @@ public abstract class SimpleCrudController<T extends CrudIdentifiable> implement
      * Fetches the entities from the service.
      */
     public void initEntities() {
-        this.entities = getService().findAll();
+        setEntities(getService().findAll());
+    }
+    
+    /**
+     * Fetches the entities from the service in the background, page by page, such that the view can be rendered
+     * immediately. The entities fetched so far are appended to {@link #getEntities()} upon every
+     * {@link #pollEntities()} invocation, e.g. by a PrimeFaces poll which stops once loading is finished:<p/>
+<pre class="brush:xml">
+&lt;p:poll interval=&quot;1&quot; listener=&quot;#{customerController.pollEntities}&quot; update=&quot;table&quot; stop=&quot;#{!customerController.loading}&quot;/&gt;
+</pre>
+     * 
+     * Every page is fetched by a call of {@link CrudService#findAfter(Long, int, Sort, Map)} of its own, hence in
+     * a transaction of its own, as the executor thread doesn't take part in the transaction of the request.<p/>
+     * 
+     * <b>Note:</b> The request and session contexts are not active in the executor thread, hence the service must not
+     * be <code>&#064;RequestScoped</code> or <code>&#064;SessionScoped</code>, but e.g. <code>&#064;ApplicationScoped</code>
+     * or <code>&#064;Stateless</code>.
+     * If no executor is available (see {@link #getAsyncExecutor()}), the entities are fetched synchronously by
+     * {@link #initEntities()} instead.
+     */
+    public void initEntitiesAsync() {
+        ExecutorService executor = getAsyncExecutor();
+        if (executor == null) {
+            initEntities();
+            return;
+        }
+        
+        cancelLoading();
+        setEntities(new ArrayList<T>());
+        final CrudService<T> service = getService();
+        final int pageSize = getAsyncPageSize();
+        final Queue<T> buffer = new ConcurrentLinkedQueue<>();
+        loadedEntities = buffer;
+        loading = executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                Long lastId = null;
+                List<T> page;
+                do {
+                    if (Thread.currentThread().isInterrupted()) {
+                        return;
+                    }
+                    page = service.findAfter(lastId, pageSize, null, null);
+                    buffer.addAll(page);
+                    if (!page.isEmpty()) {
+                        lastId = page.get(page.size() - 1).getId();
+                    }
+                } while (page.size() == pageSize);
+            }
+        });
+    }
+    
+    /**
+     * Appends the entities fetched in the background since the last invocation to {@link #getEntities()}.
+     * 
+     * @see #initEntitiesAsync()
+     * @throws IllegalStateException if fetching the entities failed
+     */
+    public void pollEntities() {
+        if (loading == null) {
+            return;
+        }
+        
+        List<T> loaded = new ArrayList<>();
+        for (T entity = loadedEntities.poll(); entity != null; entity = loadedEntities.poll()) {
+            loaded.add(entity);
+        }
+        if (!loaded.isEmpty()) {
+            invalidateMemoized();
+            getEntities().addAll(loaded);
+            entitiesLoaded(loaded);
+        }
+        
+        // entities added after draining the buffer are appended by the next invocation
+        if (loading.isDone() && loadedEntities.isEmpty()) {
+            Future<?> done = loading;
+            loading = null;
+            loadedEntities = null;
+            if (done.isCancelled()) {
+                return;
+            }
+            try {
+                done.get();
+            }
+            catch (CancellationException ex) {
+                // cancelled concurrently by cancelLoading()
+            }
+            catch (ExecutionException ex) {
+                throw new IllegalStateException("Loading entities failed.", ex.getCause());
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+    
+    /**
+     * Returns <code>true</code> if entities are being fetched in the background, or if not all of the entities
+     * fetched have been appended by {@link #pollEntities()} yet.
+     */
+    public boolean isLoading() {
+        return loading != null;
+    }
+    
+    /**
+     * Stops fetching entities in the background, e.g. when this view is destroyed.
+     */
+    @PreDestroy
+    public void cancelLoading() {
+        if (loading != null) {
+            loading.cancel(true);
+            loading = null;
+            loadedEntities = null;
+        }
+    }
+    
+    /**
+     * Returns the executor which runs {@link #initEntitiesAsync()} and prefetching (see {@link #setPrefetchCount(int)}),
+     * or <code>null</code> if there is none. Defaults to the Java EE default managed executor service.<p/>
+     * 
+     * <b>Note:</b> The service is invoked in the executor thread, where the request and session contexts are not
+     * active: It must be e.g. <code>&#064;ApplicationScoped</code> or <code>&#064;Stateless</code>.
+     */
+    protected ExecutorService getAsyncExecutor() {
+        try {
+            return (ExecutorService) new InitialContext().lookup("java:comp/DefaultManagedExecutorService");
+        }
+        catch (NamingException ex) {
+            return null;
+        }
+    }
+    
+    /**
+     * Returns the number of entities {@link #initEntitiesAsync()} fetches at once. Defaults to 100.
+     */
+    protected int getAsyncPageSize() {
+        return 100;
     }
     
     /**
@@ -93,7 +275,12 @@ public abstract class SimpleCrudController<T extends CrudIdentifiable> implement
         }
         else {
             // with id param: READ
-            currentEntity = getService().findById(currentEntityId);
+            String neighbourParam = Faces.getRequestParameterMap().get(NEIGHBOUR_PARAM);
+            T neighbour = StringsHelper.isEmpty(neighbourParam) ? null : findNeighbour(currentEntityId, "next".equals(neighbourParam));
+            if (neighbour != null) {
+                currentEntityId = neighbour.getId();
+            }
+            currentEntity = neighbour != null ? neighbour : findCurrentEntity(currentEntityId);
             if (currentEntity == null) {
                 String modelName = FacesHelper.i18nOrNullNoCaps(getModelBeanName());
                 if (modelName != null) {
@@ -106,6 +293,7 @@ public abstract class SimpleCrudController<T extends CrudIdentifiable> implement
                 currentEntityLoadedOutcome = NavigationOutcome.LIST;
                 return resolveUrl(currentEntityLoadedOutcome).navigateTo();
             }
+            prefetchNeighbours();
         }
         currentEntityLoadedOutcome = NavigationOutcome.THIS;
         return resolveUrl(currentEntityLoadedOutcome).navigateTo();
@@ -129,6 +317,212 @@ public abstract class SimpleCrudController<T extends CrudIdentifiable> implement
         }
     }
     
+    private T findCurrentEntity(Long id) {
+        T ret = prefetchedEntities != null ? prefetchedEntities.remove(id) : null;
+        return ret != null ? ret : getService().findById(id);
+    }
+    
+    private T findNeighbour(Long id, boolean next) {
+        List<T> ret = next ? getService().findAfter(id, 1, getNavigationSort()) : getService().findBefore(id, 1, getNavigationSort(), null);
+        return ret.isEmpty() ? null : ret.get(0);
+    }
+    
+    /**
+     * Shows the entity following the current entity in the order of {@link #getNavigationSort()} within this view.
+     * 
+     * @return the navigation outcome, or <code>null</code> to stay on this view
+     * @see #setPrefetchCount(int)
+     */
+    public String next() {
+        return showNeighbour(getNextId());
+    }
+    
+    /**
+     * Shows the entity preceding the current entity in the order of {@link #getNavigationSort()} within this view.
+     * 
+     * @return the navigation outcome, or <code>null</code> to stay on this view
+     * @see #setPrefetchCount(int)
+     */
+    public String previous() {
+        return showNeighbour(getPreviousId());
+    }
+    
+    private String showNeighbour(Long id) {
+        if (id != null) {
+            T entity = findCurrentEntity(id);
+            if (entity != null) {
+                currentEntityId = id;
+                currentEntity = entity;
+                prefetchNeighbours();
+            }
+        }
+        return resolveUrl(NavigationOutcome.THIS).navigateTo();
+    }
+    
+    /**
+     * Returns the id of the entity following the current entity, or <code>null</code> if there is none.
+     */
+    public Long getNextId() {
+        List<Long> ids = getNeighbourIds(true);
+        return ids.isEmpty() ? null : ids.get(0);
+    }
+    
+    /**
+     * Returns the id of the entity preceding the current entity, or <code>null</code> if there is none.
+     */
+    public Long getPreviousId() {
+        List<Long> ids = getNeighbourIds(false);
+        return ids.isEmpty() ? null : ids.get(0);
+    }
+    
+    /**
+     * Returns the navigation outcome of this view showing the entity following the current entity, e.g. for the
+     * <code>outcome</code> of a <code>&lt;p:button&gt;</code>, or <code>null</code> if there is none.<p/>
+     * 
+     * This never waits for the service: Unless the neighbours have been prefetched already, the outcome refers to the
+     * current entity along with the {@link #NEIGHBOUR_PARAM}, and the neighbour is resolved by
+     * {@link #initCurrentEntity()} of the view navigated to (which shows the current entity if there is none).
+     */
+    public String getNextOutcome() {
+        return getNeighbourOutcome(true);
+    }
+    
+    /**
+     * Returns the navigation outcome of this view showing the entity preceding the current entity, or
+     * <code>null</code> if there is none.
+     * 
+     * @see #getNextOutcome()
+     */
+    public String getPreviousOutcome() {
+        return getNeighbourOutcome(false);
+    }
+    
+    private String getNeighbourOutcome(boolean next) {
+        if (currentEntityId == null) {
+            return null;
+        }
+        List<Long> ids = prefetching == null || prefetching.isDone() ? (next ? nextIds : previousIds) : null;
+        if (ids == null) {
+            return Url.toNeighbour(Faces.getViewId(), currentEntityId, next).navigateTo();
+        }
+        return ids.isEmpty() ? null : Url.toEntity(Faces.getViewId(), ids.get(0)).navigateTo();
+    }
+    
+    /**
+     * Returns the neighbour ids of the current entity, nearest first; waits for prefetching to finish, or fetches them
+     * synchronously if they have not been prefetched.
+     */
+    private List<Long> getNeighbourIds(boolean next) {
+        if (currentEntityId == null) {
+            return Collections.emptyList();
+        }
+        if (prefetching != null) {
+            try {
+                prefetching.get();
+            }
+            catch (ExecutionException ex) {
+                // fall back to fetching synchronously
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            prefetching = null;
+        }
+        if (nextIds == null || previousIds == null) {
+            fetchNeighbours(getService(), currentEntityId, getNavigationSort(), Math.max(prefetchCount, 1), getPrefetchedEntities());
+        }
+        return next ? nextIds : previousIds;
+    }
+    
+    private void prefetchNeighbours() {
+        if (prefetching != null) {
+            prefetching.cancel(true);
+            prefetching = null;
+        }
+        nextIds = null;
+        previousIds = null;
+        if (prefetchCount < 1) {
+            return;
+        }
+        ExecutorService executor = getAsyncExecutor();
+        if (executor == null) {
+            return;
+        }
+        
+        final CrudService<T> service = getService();
+        final Long id = currentEntityId;
+        final Sort sort = getNavigationSort();
+        final int count = prefetchCount;
+        final Map<Long, T> cache = getPrefetchedEntities();
+        prefetching = executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                fetchNeighbours(service, id, sort, count, cache);
+            }
+        });
+    }
+    
+    private void fetchNeighbours(CrudService<T> service, Long id, Sort sort, int count, Map<Long, T> cache) {
+        List<T> next = service.findAfter(id, count, sort);
+        List<T> previous = service.findBefore(id, count, sort, null);
+        Collections.reverse(previous);
+        List<Long> fetchedNextIds = new ArrayList<>(next.size());
+        for (T entity : next) {
+            cache.put(entity.getId(), entity);
+            fetchedNextIds.add(entity.getId());
+        }
+        List<Long> fetchedPreviousIds = new ArrayList<>(previous.size());
+        for (T entity : previous) {
+            cache.put(entity.getId(), entity);
+            fetchedPreviousIds.add(entity.getId());
+        }
+        // the current entity may have changed in the meantime
+        if (id.equals(currentEntityId)) {
+            nextIds = fetchedNextIds;
+            previousIds = fetchedPreviousIds;
+        }
+    }
+    
+    private Map<Long, T> getPrefetchedEntities() {
+        if (prefetchedEntities == null) {
+            prefetchedEntities = Collections.synchronizedMap(new LinkedHashMap<Long, T>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, T> eldest) {
+                    // the current prefetch count applies
+                    return size() > 4 * Math.max(prefetchCount, 1);
+                }
+            });
+        }
+        return prefetchedEntities;
+    }
+    
+    /**
+     * Returns the sort order in which {@link #next()} / {@link #previous()} navigate. Defaults to <code>null</code>,
+     * i.e. to the id order.
+     */
+    protected Sort getNavigationSort() {
+        return null;
+    }
+
+    public int getPrefetchCount() {
+        return prefetchCount;
+    }
+
+    /**
+     * Activates prefetch mode: Whenever the current entity is loaded, the number of entities provided following and
+     * preceding it (see {@link #getNavigationSort()}) are fetched in the background into a small cache held by this
+     * view, such that navigating with {@link #next()} / {@link #previous()} doesn't have to wait for the service.
+     * <code>0</code> (the default) deactivates prefetching.<p/>
+     * 
+     * <b>Note:</b> The prefetched entities are not refreshed; a neighbour modified concurrently in the meantime
+     * is shown as it was when it was prefetched.
+     * 
+     * @see #getAsyncExecutor()
+     */
+    public void setPrefetchCount(int prefetchCount) {
+        this.prefetchCount = prefetchCount;
+    }
+    
     private T createNewEntity() {
         return getService().create();
     }
@@ -137,6 +531,7 @@ public abstract class SimpleCrudController<T extends CrudIdentifiable> implement
      * Saves the entity provided to the service and redirects to the master view.
      */
     public String save(T currentEntity) {
+        invalidateMemoized();
         getService().save(currentEntity);
         return resolveUrl(NavigationOutcome.LIST).redirect().navigateTo();
     }
@@ -145,6 +540,7 @@ public abstract class SimpleCrudController<T extends CrudIdentifiable> implement
      * Deletes the entity provided from the service and redirects to the master view.
      */
     public String delete(Long id) {
+        invalidateMemoized();
         getService().delete(id);
         return resolveUrl(NavigationOutcome.LIST).redirect().navigateTo();
     }
@@ -166,12 +562,228 @@ public abstract class SimpleCrudController<T extends CrudIdentifiable> implement
         return Introspector.decapitalize(getModelClass().getSimpleName());
     }
     
+    /**
+     * Returns the entities. In compact state mode, unchanged entities are reloaded from the service
+     * upon the first invocation after deserialization.
+     */
     public List<T> getEntities() {
+        if (compactEntities != null) {
+            rehydrateEntities();
+        }
         return entities;
     }
 
+    /**
+     * Sets the entities. Unless <code>null</code>, they are held in an {@link EntityList}.
+     */
     public void setEntities(List<T> entities) {
-        this.entities = entities;
+        invalidateMemoized();
+        this.compactEntities = null;
+        this.entities = entities == null || entities instanceof EntityList ? entities : new EntityList<>(entities);
+    }
+    
+    private void rehydrateEntities() {
+        List<Long> ids = new ArrayList<>();
+        for (Object entry : compactEntities) {
+            if (entry instanceof Long) {
+                ids.add((Long) entry);
+            }
+        }
+        EntityList<T> reloaded = new EntityList<>(getService().findByIds(ids));
+        
+        // entities deleted in the meantime are skipped
+        List<T> ret = new ArrayList<>(compactEntities.length);
+        for (Object entry : compactEntities) {
+            T entity = entry instanceof Long ? reloaded.getById((Long) entry) : (T) entry;
+            if (entity != null) {
+                ret.add(entity);
+            }
+        }
+        setEntities(ret);
+        entitiesLoaded(reloaded);
+    }
+    
+    /**
+     * Returns the value computed by the computation provided, which is computed only once per key within the current
+     * request phase, no matter how often it is requested, e.g. by EL expressions during rendering. Use it for derived
+     * properties which are expensive to compute:<p/>
+<pre class="brush:java">
+public BigDecimal getTotal() {
+    return memoize("total", new Callable&lt;BigDecimal&gt;() {
+        &#064;Override
+        public BigDecimal call() {
+            return computeTotal(getEntities());
+        }
+    });
+}
+</pre>
+     * 
+     * Memoized values are discarded upon the next JSF phase (hence, the values rendered are computed after the
+     * actions have been invoked), and by actions which change the entities (see {@link #invalidateMemoized()}).
+     * 
+     * @throws IllegalStateException if the computation throws a checked exception
+     */
+    protected <V> V memoize(String key, Callable<V> computation) {
+        // values are memoized per request, and within the request per phase
+        FacesContext context = FacesContext.getCurrentInstance();
+        PhaseId phase = context != null ? context.getCurrentPhaseId() : null;
+        Memo memo = (Memo) getRequestState().get(MEMO_KEY);
+        if (memo == null || memo.phase != phase) {
+            memo = new Memo(phase);
+            getRequestState().put(MEMO_KEY, memo);
+        }
+        if (memo.values.containsKey(key)) {
+            return (V) memo.values.get(key);
+        }
+        
+        V ret;
+        try {
+            ret = computation.call();
+        }
+        catch (RuntimeException ex) {
+            throw ex;
+        }
+        catch (Exception ex) {
+            throw new IllegalStateException("Cannot compute " + key, ex);
+        }
+        memo.values.put(key, ret);
+        return ret;
+    }
+    
+    /**
+     * The values memoized within a request phase.
+     */
+    private static class Memo {
+        private final PhaseId phase;
+        private final Map<String, Object> values = new HashMap<>();
+
+        public Memo(PhaseId phase) {
+            this.phase = phase;
+        }
+    }
+    
+    /**
+     * Returns the state of this controller which is kept for the current request only. It's stored in the
+     * {@link FacesContext#getAttributes()} keyed by this controller, hence it's never shared by concurrent requests,
+     * e.g. to a session scoped controller. Without a FacesContext (e.g. in unit tests), the state is kept until it's
+     * removed.
+     */
+    Map<String, Object> getRequestState() {
+        FacesContext context = FacesContext.getCurrentInstance();
+        if (context == null) {
+            if (requestStateWithoutContext == null) {
+                requestStateWithoutContext = new HashMap<>();
+            }
+            return requestStateWithoutContext;
+        }
+        RequestStateKey key = new RequestStateKey(this);
+        Map<String, Object> ret = (Map<String, Object>) context.getAttributes().get(key);
+        if (ret == null) {
+            ret = new HashMap<>();
+            context.getAttributes().put(key, ret);
+        }
+        return ret;
+    }
+    
+    /**
+     * Identifies the request state of a controller instance.
+     */
+    private static class RequestStateKey {
+        private final Object controller;
+
+        public RequestStateKey(Object controller) {
+            this.controller = controller;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(controller);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof RequestStateKey && ((RequestStateKey) obj).controller == controller;
+        }
+    }
+    
+    /**
+     * Discards all values memoized by {@link #memoize(String, Callable)}. Invoke it in custom action methods which
+     * change the state memoized values are derived from.
+     */
+    protected void invalidateMemoized() {
+        getRequestState().remove(MEMO_KEY);
+    }
+    
+    /**
+     * Returns <code>true</code> if the entity provided must be serialized as a whole in compact state mode
+     * rather than by its id only, i.e. if it has not been persisted, or if it may hold unsaved changes.
+     * By default, this is true for entities without a positive id and for the {@link #getCurrentEntity()}, which is
+     * the entity edited in a detail view. Override this method if other entities are edited in place.
+     */
+    protected boolean isSerializedAsWhole(T entity) {
+        return entity.getId() == null || entity.getId() < 0 || isCurrentEntity(entity);
+    }
+    
+    private boolean isCurrentEntity(T entity) {
+        return currentEntity != null && (currentEntity == entity || entity.getId().equals(currentEntity.getId()));
+    }
+    
+    /**
+     * Invoked after entities have been added to {@link #getEntities()} as they are fetched in the background, or
+     * after the unchanged entities have been reloaded from the service in compact state mode.
+     * Does nothing by default.
+     * 
+     * @param loaded the entities loaded
+     */
+    protected void entitiesLoaded(List<T> loaded) {
+    }
+
+    public boolean isCompactState() {
+        return compactState;
+    }
+
+    /**
+     * Activates / deactivates compact state mode, in which only the ids of unchanged entities are serialized
+     * with the view / session state. This keeps e.g. client-side state small at the cost of reloading the entities
+     * on every postback which accesses them.<p/>
+     * 
+     * Which entities are considered unchanged is decided by {@link #isSerializedAsWhole(CrudIdentifiable)}.
+     */
+    public void setCompactState(boolean compactState) {
+        this.compactState = compactState;
+    }
+    
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        if (!compactState) {
+            out.writeObject(getEntities());
+        }
+        else if (compactEntities != null) {
+            // not accessed since the last deserialization
+            out.writeObject(compactEntities);
+        }
+        else if (entities == null) {
+            out.writeObject(null);
+        }
+        else {
+            Object[] compact = new Object[entities.size()];
+            for (int i = 0; i < compact.length; i++) {
+                T entity = entities.get(i);
+                compact[i] = entity != null && !isSerializedAsWhole(entity) ? entity.getId() : entity;
+            }
+            out.writeObject(compact);
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (!compactState) {
+            entities = (List<T>) in.readObject();
+        }
+        else {
+            // the service is not available before deserialization is complete
+            compactEntities = (Object[]) in.readObject();
+        }
     }
 
     public Long getCurrentEntityId() {
@@ -35,6 +35,22 @@ public class Url {
         this.redirect = redirect;
     }
 
+    /**
+     * Builds the URL of the view provided showing the entity with the id provided, as read by
+     * {@link SimpleCrudController#initCurrentEntity()}, e.g. to navigate to the next / previous entity.
+     */
+    public static Url toEntity(String outcome, Long id) {
+        return new Url(outcome).param("id", id);
+    }
+
+    /**
+     * Builds the URL of the view provided showing the entity following (or preceding) the entity with the id provided,
+     * as resolved by {@link SimpleCrudController#initCurrentEntity()}.
+     */
+    public static Url toNeighbour(String outcome, Long id, boolean next) {
+        return toEntity(outcome, id).param(SimpleCrudController.NEIGHBOUR_PARAM, next ? "next" : "previous");
+    }
+
     /**
      * Activates redirect.
      */
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2015 CrudFaces / Nicolas Hofstetter (codebulb.ch).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package ch.codebulb.crudfaces.model;
+
+import javax.persistence.MappedSuperclass;
+import javax.persistence.Version;
+
+import ch.codebulb.crudfaces.service.CrudService;
+
+/**
+ * <p>
+ * A {@link CrudEntity} with an optimistic locking <code>&#064;Version</code> field.</p>
+ * <p>
+ * Derive your entity model classes from this class rather than from {@link CrudEntity} if concurrent modifications
+ * must not silently overwrite each other. {@link CrudService#saveAllChecked(java.util.Collection)} then reports
+ * entities which have been modified concurrently as conflicts rather than overwriting them.</p>
+ * <p>
+ * The version is managed by the persistence provider; it should never be changed by application code.</p>
+ *
+ * @author Nicolas Hofstetter (codebulb.ch)
+ * @since 0.2
+ */
+@MappedSuperclass
+public abstract class VersionedCrudEntity extends CrudEntity implements CrudVersioned {
+    private static final long serialVersionUID = 1L;
+    @Version
+    private Long version;
+
+    @Override
+    public Long getVersion() {
+        return version;
+    }
+
+    @Override
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+}
@@ -15,6 +15,8 @@ package ch.codebulb.crudfaces.renderer;
 import ch.codebulb.crudfaces.util.StringsHelper;
 import java.io.IOException;
 import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import javax.faces.component.UIComponent;
 import javax.faces.component.html.HtmlOutputLabel;
 import javax.faces.component.html.HtmlOutputText;
@@ -24,12 +26,22 @@ import javax.faces.context.ResponseWriter;
 
 /**
  * A class which contains Bootstrap-specific style classes and grid-units to build a form grid
- * within {@link FormLayoutRenderer}.
+ * within {@link FormLayoutRenderer}.<p/>
+ * 
+ * The style classes of grid units are deterministic, hence the <code>get*StyleClasses</code> methods return them
+ * from a table of precomputed strings rather than building new {@link FormLayoutGridUnits} every time.
  *
  * @author Nicolas Hofstetter (codebulb.ch)
  * @since 0.1
  */
 public class BootstrapFormLayoutProvider {
+    private static final int UNIT_BITS = 12;
+    private static final int UNIT_MIN = -(1 << (UNIT_BITS - 1));
+    private static final int UNIT_MAX = (1 << (UNIT_BITS - 1)) - 1;
+    private static final long UNIT_MASK = (1L << UNIT_BITS) - 1;
+    
+    private final ConcurrentMap<Long, String> styleClasses = new ConcurrentHashMap<>();
+    
     public int getGroupRatio(int ratio, int groups) {
         return ratio / (getResolution() * groups / getResolution());
     }
@@ -81,29 +93,66 @@ public class BootstrapFormLayoutProvider {
         return ret;
     }
     
-    private FormLayoutGridUnits createButtonBarOffsetUnits(double xl, int groups) {
-        FormLayoutGridUnits ret = new FormLayoutGridUnits.BootstrapFormGridOffsetUnits(this);
-        ret.sm = 0;
-        ret.md = xl * groups;
-        ret.lg = xl * groups;
-        ret.xl = xl;
+    /**
+     * Returns the style classes of {@link #createUnits(double, double)}.
+     */
+    public String getUnitsStyleClasses(int md, int xl) {
+        return getStyleClasses(getResolution(), md, md, xl, false);
+    }
+    
+    /**
+     * Returns the style classes of {@link #createUnitsForXLarge(double)}.
+     */
+    public String getUnitsForXLargeStyleClasses(int xl) {
+        return getStyleClasses(getResolution(), xl * 2, xl * 2, xl, false);
+    }
+    
+    /**
+     * Returns the style classes of {@link #createUnits(double, double, double, double)}, or of the equivalent
+     * offset units if <code>offset</code> is <code>true</code>. The strings returned are precomputed once for every
+     * distinct unit tuple.
+     */
+    public String getStyleClasses(int sm, int md, int lg, int xl, boolean offset) {
+        int resolution = getResolution();
+        if (!isPackable(sm) || !isPackable(md) || !isPackable(lg) || !isPackable(xl) || resolution < 0 || resolution > 0xFF) {
+            return createStyleClasses(sm, md, lg, xl, offset);
+        }
+        Long key = (sm & UNIT_MASK) | (md & UNIT_MASK) << UNIT_BITS | (lg & UNIT_MASK) << 2 * UNIT_BITS
+                | (xl & UNIT_MASK) << 3 * UNIT_BITS | (long) resolution << 4 * UNIT_BITS | (offset ? 1L : 0L) << (4 * UNIT_BITS + 8);
+        String ret = styleClasses.get(key);
+        if (ret == null) {
+            ret = createStyleClasses(sm, md, lg, xl, offset);
+            styleClasses.putIfAbsent(key, ret);
+        }
         return ret;
     }
     
-    private FormLayoutGridUnits getLeftoverPlace(FormLayoutGridUnits other) {
-        return createUnits(
-            getResolution()-other.sm, getResolution()-other.md, getResolution()-other.lg, getResolution()-other.xl);
+    private static boolean isPackable(int unit) {
+        return unit >= UNIT_MIN && unit <= UNIT_MAX;
     }
-
+    
+    private String createStyleClasses(int sm, int md, int lg, int xl, boolean offset) {
+        if (!offset) {
+            return createUnits(sm, md, lg, xl).getStyleClasses();
+        }
+        FormLayoutGridUnits ret = new FormLayoutGridUnits.BootstrapFormGridOffsetUnits(this);
+        ret.sm = sm;
+        ret.md = md;
+        ret.lg = lg;
+        ret.xl = xl;
+        return ret.getStyleClasses();
+    }
+    
     public void writeButtonBar(FacesContext context, boolean gapBeforeButtonBar, int firstColspan, int groups, Collection<UIComponent> buttons) throws IOException {
         ResponseWriter writer = context.getResponseWriter();
 
-        FormLayoutGridUnits offsetUnits = createButtonBarOffsetUnits(firstColspan, groups);
-        FormLayoutGridUnits buttonBarUnits = getLeftoverPlace(offsetUnits);
+        int offset = firstColspan * groups;
+        String offsetStyleClasses = getStyleClasses(0, offset, offset, firstColspan, true);
+        String buttonBarStyleClasses = getStyleClasses(getResolution(), getResolution() - offset, getResolution() - offset, getResolution() - firstColspan, false);
 
         writer.startElement("div", null);
         writer.writeAttribute("class", 
-                StringsHelper.join(" ").add(offsetUnits.getStyleClasses()).add(buttonBarUnits.getStyleClasses()).add("cf-formlayout-buttonbar").toString(), 
+                StringsHelper.join(" ").add(offsetStyleClasses).add(buttonBarStyleClasses).add("cf-formlayout-buttonbar").toString(), 
                 null);
         for (UIComponent button : buttons) {
             button.encodeAll(context);
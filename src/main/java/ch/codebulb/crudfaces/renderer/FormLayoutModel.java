@@ -70,8 +70,14 @@ public class FormLayoutModel {
     }
     
     public void add(UIComponent component) {
-        int colspan = FormLayoutRenderer.getColspan(component);
-        
+        add(component, FormLayoutRenderer.getColspan(component));
+    }
+    
+    /**
+     * Adds the component provided with the colspan provided rather than the colspan defined by the component.
+     * The component may be <code>null</code> in order to calculate the layout only.
+     */
+    public void add(UIComponent component, int colspan) {
         if (rows.get(rows.size()-1).getRatioSum() >= groups) {
             rows.add(new Row());
         }
@@ -17,9 +17,16 @@ import ch.codebulb.crudfaces.component.IncludeMainCss;
 import ch.codebulb.crudfaces.util.ComponentsHelper;
 import ch.codebulb.crudfaces.util.StringsHelper;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import javax.faces.component.UIComponent;
 import javax.faces.component.UIInput;
 import javax.faces.component.UIMessage;
@@ -38,7 +45,14 @@ import org.primefaces.component.commandbutton.CommandButton;
 import org.primefaces.expression.SearchExpressionFacade;
 
 /**
- * The JSF component renderer for {@link FormLayout}.
+ * The JSF component renderer for {@link FormLayout}.<p/>
+ * 
+ * The layout structure and its style classes are taken from a cached {@link FormLayoutSkeleton}, hence they are
+ * calculated only once for every distinct combination of attributes and child colspans. Alternatively, with
+ * {@link #STREAMING} enabled, the layout is calculated by a {@link FormLayoutStream} while writing the markup.<p/>
+ * 
+ * As JSF renderers are shared by all requests, this renderer is stateless: The state of rendering a
+ * {@link FormLayout} is held in a {@link RenderState} in the {@link FacesContext} attributes.
  *
  * @author Nicolas Hofstetter (codebulb.ch)
  * @since 0.1
@@ -55,15 +69,17 @@ public class FormLayoutRenderer extends Renderer {
      * Global style class override for invalid component message cell styling
      */
     public static String MESSAGE_SUBCELL_STYLE_CLASS = null;
+    /**
+     * Global override to calculate the layout while writing the markup with a {@link FormLayoutStream}
+     * rather than taking it from a cached {@link FormLayoutSkeleton}. Only the cells of the current group are
+     * buffered then; apart from that, one bit per child and an index of the children's ids (to resolve the targets
+     * of messages and labels) are held while rendering.
+     */
+    public static boolean STREAMING = false;
     
-    private BootstrapFormLayoutProvider formLayoutProvider = new BootstrapFormLayoutProvider();
-    
-    private int[] groupRatios;
-    private FormLayoutModel model;
+    private static final String RENDER_STATE_KEY = RenderState.class.getName() + ":";
     
-    protected Map<UIComponent, UIMessage> componentsWithAttachedMessages = new HashMap<>();
-    protected Map<String, UIComponent> buttons = new LinkedHashMap<>();
-    protected Map<UISelectBoolean, HtmlOutputLabel> checkboxesWithLabels = new LinkedHashMap<>();
+    private final BootstrapFormLayoutProvider formLayoutProvider = new BootstrapFormLayoutProvider();
 
     @Override
     public boolean getRendersChildren() {
@@ -75,11 +91,12 @@ public class FormLayoutRenderer extends Renderer {
         super.encodeBegin(context, component);
         
         FormLayout formLayout = (FormLayout) component;
-        initComponent(formLayout);
+        String clientId = formLayout.getClientId(context);
+        context.getAttributes().put(RENDER_STATE_KEY + clientId, createRenderState(formLayout));
         
         ResponseWriter writer = context.getResponseWriter();
         writer.startElement("div", null);
-        writer.writeAttribute("id", formLayout.getClientId(context), null);
+        writer.writeAttribute("id", clientId, null);
         
         
         String styleClass = formLayoutProvider.getContainerStyleClass();
@@ -93,17 +110,23 @@ public class FormLayoutRenderer extends Renderer {
         }
     }
     
-    public void initComponent(FormLayout component) {
-        componentsWithAttachedMessages = new HashMap<>();
-        buttons = new LinkedHashMap<>();
-        
-        String[] groupRatiosString = component.getGroupRatios().split(" ");
-        groupRatios = new int[groupRatiosString.length];
-        for (int i = 0; i < groupRatiosString.length; i++) {
-            groupRatios[i] = Integer.parseInt(groupRatiosString[i]);
+    /**
+     * Creates the state of rendering the {@link FormLayout} provided.
+     */
+    protected RenderState createRenderState(FormLayout component) {
+        return new RenderState(FormLayoutSkeleton.parseGroupRatios(component.getGroupRatios()));
+    }
+    
+    /**
+     * Gets the state of rendering the {@link FormLayout} provided, as created in
+     * {@link #encodeBegin(FacesContext, UIComponent)}.
+     */
+    protected RenderState getRenderState(FacesContext context, UIComponent component) {
+        RenderState ret = (RenderState) context.getAttributes().get(RENDER_STATE_KEY + component.getClientId(context));
+        if (ret == null) {
+            throw new IllegalStateException("No render state found for " + component.getClientId(context) + ": encodeBegin() not invoked");
         }
-        
-        model = new FormLayoutModel(component.getGroups(), groupRatios, formLayoutProvider.getResolution());
+        return ret;
     }
 
     @Override
@@ -112,73 +135,108 @@ public class FormLayoutRenderer extends Renderer {
             throw new NullPointerException();
         }
         if (component.getChildCount() > 0) {
-            findSpecialComponents((FormLayout) component, context);
+            FormLayout formLayout = (FormLayout) component;
+            RenderState state = getRenderState(context, formLayout);
             
-            for (UIComponent child : component.getChildren()) {
-                if (shouldRender(child)) {
-                    model.add(child);
-                }
+            if (STREAMING) {
+                BitSet renderedIndexes = new BitSet(component.getChildCount());
+                classifyChildren(formLayout, state, null, renderedIndexes, context);
+                encodeStreaming(formLayout, state, renderedIndexes, context);
+            }
+            else {
+                List<UIComponent> children = new ArrayList<>(component.getChildCount());
+                int[] colspans = classifyChildren(formLayout, state, children, null, context);
+                FormLayoutSkeleton skeleton = FormLayoutSkeleton.get(formLayoutProvider, formLayout.getGroups(), formLayout.getGroupRatios(), colspans);
+                encode(formLayout, state, skeleton, children, context);
             }
-            
-            encode((FormLayout) component, context);
         }
     }
 
-    private void findSpecialComponents(FormLayout formLayout, FacesContext context) {
+    /**
+     * Classifies the children of the form layout provided in a single walk: Messages and labels are attached to
+     * their targets, buttons are collected for the button bar, and all other children are added to the children
+     * rendered.
+     *
+     * @param rendered the list to add the children rendered to, or <code>null</code> to not collect them
+     * @param renderedIndexes the set to add the indexes of the children rendered to, or <code>null</code>
+     * @return the colspans of the children rendered, or <code>null</code> if they are not collected
+     */
+    private int[] classifyChildren(FormLayout formLayout, RenderState state, List<UIComponent> rendered, BitSet renderedIndexes, FacesContext context) {
+        boolean checkboxLabelsInline = formLayout.isCheckboxLabelsInline();
+        Map<String, UIComponent> idIndex = new HashMap<>();
+        List<UIMessage> messages = new ArrayList<>();
+        List<HtmlOutputLabel> labels = new ArrayList<>();
+        int[] colspans = rendered != null ? new int[formLayout.getChildCount()] : null;
+        
+        int index = -1;
         for (UIComponent child : formLayout.getChildren()) {
+            index++;
+            if (child.getId() != null) {
+                idIndex.put(child.getId(), child);
+            }
+            
             if (isMessage(child)) {
-                UIComponent target = SearchExpressionFacade.resolveComponent(context, child, ((UIMessage) child).getFor());
-                componentsWithAttachedMessages.put(target, (UIMessage) child);
+                messages.add((UIMessage) child);
             }
             else if(isButton(child)) {
-                buttons.put(child.getClientId(), child);
+                state.buttons.put(child.getClientId(context), child);
             }
-            
-            if (formLayout.isCheckboxLabelsInline()) {
-                if(isLabel(child)) {
-                    UIComponent target = SearchExpressionFacade.resolveComponent(context, child, ((HtmlOutputLabel) child).getFor());
-                    if (isCheckbox(target)) {
-                        checkboxesWithLabels.put((UISelectBoolean)target, (HtmlOutputLabel) child);
-                    }
+            else {
+                if (rendered != null) {
+                    colspans[rendered.size()] = getColspan(child);
+                    rendered.add(child);
                 }
+                if (renderedIndexes != null) {
+                    renderedIndexes.set(index);
+                }
+            }
+            
+            if (checkboxLabelsInline && isLabel(child)) {
+                labels.add((HtmlOutputLabel) child);
+            }
+        }
+        
+        for (UIMessage message : messages) {
+            state.componentsWithAttachedMessages.put(resolveFor(context, message, message.getFor(), idIndex), message);
+        }
+        for (HtmlOutputLabel label : labels) {
+            UIComponent target = resolveFor(context, label, label.getFor(), idIndex);
+            if (isCheckbox(target)) {
+                state.checkboxesWithLabels.put((UISelectBoolean) target, label);
+                state.checkboxLabels.add(label);
+            }
+        }
+        
+        return rendered != null ? Arrays.copyOf(colspans, rendered.size()) : null;
+    }
+    
+    /**
+     * Resolves the "for" attribute provided: Ids of siblings are resolved by the index provided, any other
+     * search expression is resolved by PrimeFaces.
+     */
+    private static UIComponent resolveFor(FacesContext context, UIComponent source, String expression, Map<String, UIComponent> idIndex) {
+        if (expression != null) {
+            UIComponent ret = idIndex.get(expression);
+            if (ret != null) {
+                return ret;
             }
         }
+        return SearchExpressionFacade.resolveComponent(context, source, expression);
     }
     
-    private void encode(FormLayout formLayout, FacesContext context) throws IOException {
+    private void encode(FormLayout formLayout, RenderState state, FormLayoutSkeleton skeleton, List<UIComponent> children, FacesContext context) throws IOException {
         ResponseWriter writer = context.getResponseWriter();
         
-        for (FormLayoutModel.Row row : model.getRows()) {
+        for (FormLayoutSkeleton.Row row : skeleton.getRows()) {
             writer.startElement("div", null);
-            writer.writeAttribute("class", StringsHelper.join(" ").add(formLayoutProvider.getRowStyleClass()).add("cf-formlayout-row").toString(), null);
+            writer.writeAttribute("class", row.getStyleClass(), null);
             
-            for (FormLayoutModel.Group group : row.getGroups()) {
+            for (FormLayoutSkeleton.Group group : row.getGroups()) {
                 writer.startElement("div", null);
-                writer.writeAttribute("class", StringsHelper.join(" ").add(formLayoutProvider.getGroupStyleClass())
-                    .add(formLayoutProvider.createUnitsForXLarge(formLayoutProvider.getResolution() / formLayout.getGroups() * group.getRatio()).getStyleClasses())
-                    .add("cf-formlayout-group").toString(), null);
+                writer.writeAttribute("class", group.getStyleClass(), null);
                 
-                for (FormLayoutModel.Comp comp : group.getComps()) {
-                    UIComponent component = comp.component;
-                    
-                    writer.startElement("div", null);
-
-                    String cellStyleClass = formLayoutProvider.createUnits(comp.getSingleGroupRatio(), comp.getRatio()).getStyleClasses();
-
-                    writer.writeAttribute("class", StringsHelper.join(" ").
-                            add(cellStyleClass).add("cf-formlayout-cell").add(formLayoutProvider.getComponentClass(component)).toString(), null);
-
-                    UIMessage attachedMessage = componentsWithAttachedMessages.get(component);
-
-                    if (attachedMessage == null) {
-                        encodeComponent(component, formLayout, context);
-                    }
-                    else {
-                        encodeCombinedComponentWithMessage(component, formLayout, attachedMessage, context);
-                    }
-
-                    // end comp
-                    writer.endElement("div");
+                for (FormLayoutSkeleton.Cell cell : group.getCells()) {
+                    encodeCell(children.get(cell.getIndex()), cell.getStyleClass(), formLayout, state, context);
                 }
                 
                 // end group
@@ -190,8 +248,70 @@ public class FormLayoutRenderer extends Renderer {
         }
     }
     
-    private static boolean shouldRender(UIComponent child) {
-        return !(isMessage(child) || isButton(child));
+    private void encodeStreaming(final FormLayout formLayout, final RenderState state, BitSet renderedIndexes, final FacesContext context) throws IOException {
+        final ResponseWriter writer = context.getResponseWriter();
+        
+        FormLayoutStream<UIComponent> stream = new FormLayoutStream<>(formLayout.getGroups(), state.groupRatios, formLayoutProvider.getResolution(),
+                new FormLayoutStream.Visitor<UIComponent>() {
+            @Override
+            public void startRow() throws IOException {
+                writer.startElement("div", null);
+                writer.writeAttribute("class", StringsHelper.join(" ").add(formLayoutProvider.getRowStyleClass()).add("cf-formlayout-row").toString(), null);
+            }
+
+            @Override
+            public void startGroup(int ratio) throws IOException {
+                writer.startElement("div", null);
+                writer.writeAttribute("class", StringsHelper.join(" ").add(formLayoutProvider.getGroupStyleClass())
+                    .add(formLayoutProvider.getUnitsForXLargeStyleClasses(formLayoutProvider.getResolution() / formLayout.getGroups() * ratio))
+                    .add("cf-formlayout-group").toString(), null);
+            }
+
+            @Override
+            public void cell(UIComponent component, int singleGroupRatio, int ratio) throws IOException {
+                encodeCell(component, StringsHelper.join(" ").add(formLayoutProvider.getUnitsStyleClasses(singleGroupRatio, ratio))
+                        .add("cf-formlayout-cell").toString(), formLayout, state, context);
+            }
+
+            @Override
+            public void endGroup() throws IOException {
+                writer.endElement("div");
+            }
+
+            @Override
+            public void endRow() throws IOException {
+                writer.endElement("div");
+            }
+        });
+        
+        // messages and buttons are rendered separately (see classifyChildren())
+        int index = 0;
+        for (UIComponent child : formLayout.getChildren()) {
+            if (renderedIndexes.get(index++)) {
+                stream.add(child, getColspan(child));
+            }
+        }
+        stream.finish();
+    }
+    
+    private void encodeCell(UIComponent component, String cellStyleClass, FormLayout formLayout, RenderState state, FacesContext context) throws IOException {
+        ResponseWriter writer = context.getResponseWriter();
+        writer.startElement("div", null);
+
+        String componentClass = formLayoutProvider.getComponentClass(component);
+        writer.writeAttribute("class", StringsHelper.join(" ").add(cellStyleClass).add(componentClass).toString(), null);
+
+        UIMessage attachedMessage = state.componentsWithAttachedMessages.get(component);
+
+        if (attachedMessage == null) {
+            encodeComponent(component, formLayout, state, context);
+        }
+        else {
+            encodeCombinedComponentWithMessage(component, formLayout, state, attachedMessage, context);
+        }
+
+        // end comp
+        writer.endElement("div");
     }
     
     private static boolean isButton(UIComponent child) {
@@ -224,7 +344,7 @@ public class FormLayoutRenderer extends Renderer {
         }
     }
 
-    private void encodeCombinedComponentWithMessage(UIComponent child, FormLayout formLayout, UIMessage attachedMessage, FacesContext context) throws IOException {
+    private void encodeCombinedComponentWithMessage(UIComponent child, FormLayout formLayout, RenderState state, UIMessage attachedMessage, FacesContext context) throws IOException {
         ResponseWriter writer = context.getResponseWriter();
         writer.startElement("div", null);
         String invalidStyleClass = null;
@@ -233,7 +353,7 @@ public class FormLayoutRenderer extends Renderer {
                     formLayoutProvider.getMessageComponentSubCellStyleClass();
         }
         writer.writeAttribute("class", StringsHelper.join(" ").add(invalidStyleClass).add("cf-formlayout-componentcell").toString(), null);
-        encodeComponent(child, formLayout, context);
+        encodeComponent(child, formLayout, state, context);
         writer.endElement("div");
 
         writer.startElement("div", null);
@@ -246,20 +366,20 @@ public class FormLayoutRenderer extends Renderer {
         writer.endElement("div");
     }
     
-    private void encodeComponent(UIComponent child, FormLayout formLayout, FacesContext context) throws IOException {
+    private void encodeComponent(UIComponent child, FormLayout formLayout, RenderState state, FacesContext context) throws IOException {
         if (formLayout.isCheckboxLabelsInline()) {
             if (isCheckbox(child)) {
                 // put checkbox and label in a containing div
                 ResponseWriter writer = context.getResponseWriter();
                 writer.startElement("div", null);
                 child.encodeAll(context);
-                checkboxesWithLabels.get(child).encodeAll(context);
+                state.checkboxesWithLabels.get(child).encodeAll(context);
                 writer.endElement("div");
                 return;
             }
             else if(isLabel(child)) {
                 // don't render the label separately
-                if (checkboxesWithLabels.values().contains(child)) {
+                if (state.checkboxLabels.contains(child)) {
                     return;
                 }
             }
@@ -272,15 +392,30 @@ public class FormLayoutRenderer extends Renderer {
         super.encodeEnd(context, component);
         
         FormLayout formLayout = (FormLayout) component;
+        RenderState state = getRenderState(context, formLayout);
         
         ResponseWriter writer = context.getResponseWriter();
         
-        int firstColspan = 1;
-        if (groupRatios != null) {
-            firstColspan = groupRatios[0] / formLayout.getGroups();
-        }
-        formLayoutProvider.writeButtonBar(context, true, firstColspan, formLayout.getGroups(), buttons.values());
+        int firstColspan = state.groupRatios[0] / formLayout.getGroups();
+        formLayoutProvider.writeButtonBar(context, true, firstColspan, formLayout.getGroups(), state.buttons.values());
         
         writer.endElement("div");
+        context.getAttributes().remove(RENDER_STATE_KEY + formLayout.getClientId(context));
+    }
+    
+    /**
+     * The state of rendering a single {@link FormLayout}, from {@link #encodeBegin(FacesContext, UIComponent)}
+     * until {@link #encodeEnd(FacesContext, UIComponent)}.
+     */
+    protected static class RenderState {
+        protected final int[] groupRatios;
+        protected final Map<UIComponent, UIMessage> componentsWithAttachedMessages = new HashMap<>();
+        protected final Map<String, UIComponent> buttons = new LinkedHashMap<>();
+        protected final Map<UISelectBoolean, HtmlOutputLabel> checkboxesWithLabels = new HashMap<>();
+        protected final Set<HtmlOutputLabel> checkboxLabels = Collections.newSetFromMap(new IdentityHashMap<HtmlOutputLabel, Boolean>());
+
+        public RenderState(int[] groupRatios) {
+            this.groupRatios = groupRatios;
+        }
     }
 }
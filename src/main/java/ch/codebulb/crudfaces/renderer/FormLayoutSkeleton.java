@@ -0,0 +1,215 @@
+/*
+ * Copyright 2015 CrudFaces / Nicolas Hofstetter (codebulb.ch).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package ch.codebulb.crudfaces.renderer;
+
+import ch.codebulb.crudfaces.component.FormLayout;
+import ch.codebulb.crudfaces.util.StringsHelper;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The precomputed markup structure of a {@link FormLayout}: its rows, groups and cells, including their style
+ * classes, as calculated by {@link FormLayoutModel}.<p/>
+ *
+ * The layout only depends on the <code>groups</code> and <code>groupRatios</code> attributes and on the colspans
+ * of the children rendered, hence skeletons are cached by exactly these values and shared across renders,
+ * requests and views. A changed attribute or child set simply resolves to another skeleton.
+ * Cells refer to the children rendered by their index; trailing children which don't complete a group
+ * are not part of the skeleton, as with {@link FormLayoutModel}.
+ *
+ * @author Nicolas Hofstetter (codebulb.ch)
+ * @since 0.2
+ */
+public class FormLayoutSkeleton {
+    /**
+     * The maximum number of skeletons (and parsed <code>groupRatios</code> attributes) kept in the cache.
+     */
+    public static int CACHE_SIZE = 256;
+
+    private static final Map<Key, FormLayoutSkeleton> SKELETONS = createCache();
+    private static final Map<String, int[]> GROUP_RATIOS = createCache();
+
+    private final List<Row> rows;
+
+    private FormLayoutSkeleton(List<Row> rows) {
+        this.rows = rows;
+    }
+
+    /**
+     * Returns the (cached) skeleton of a {@link FormLayout} with the attributes provided and children
+     * with the colspans provided.
+     */
+    public static FormLayoutSkeleton get(BootstrapFormLayoutProvider formLayoutProvider, int groups, String groupRatios, int[] colspans) {
+        Key key = new Key(groups, groupRatios, formLayoutProvider.getResolution(), colspans);
+        FormLayoutSkeleton ret = SKELETONS.get(key);
+        if (ret == null) {
+            ret = build(formLayoutProvider, groups, parseGroupRatios(groupRatios), colspans);
+            SKELETONS.put(key, ret);
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the (cached) space-separated <code>groupRatios</code> attribute provided as an int array.
+     * The array returned must not be modified.
+     */
+    public static int[] parseGroupRatios(String groupRatios) {
+        int[] ret = GROUP_RATIOS.get(groupRatios);
+        if (ret == null) {
+            String[] groupRatiosString = groupRatios.split(" ");
+            ret = new int[groupRatiosString.length];
+            for (int i = 0; i < groupRatiosString.length; i++) {
+                ret[i] = Integer.parseInt(groupRatiosString[i]);
+            }
+            GROUP_RATIOS.put(groupRatios, ret);
+        }
+        return ret;
+    }
+
+    private static FormLayoutSkeleton build(BootstrapFormLayoutProvider formLayoutProvider, int groups, int[] groupRatios, int[] colspans) {
+        FormLayoutModel model = new FormLayoutModel(groups, groupRatios, formLayoutProvider.getResolution());
+        for (int colspan : colspans) {
+            model.add(null, colspan);
+        }
+
+        String rowStyleClass = StringsHelper.join(" ").add(formLayoutProvider.getRowStyleClass()).add("cf-formlayout-row").toString();
+        List<Row> rows = new ArrayList<>();
+        int index = 0;
+        for (FormLayoutModel.Row modelRow : model.getRows()) {
+            List<Group> rowGroups = new ArrayList<>();
+            for (FormLayoutModel.Group modelGroup : modelRow.getGroups()) {
+                String groupStyleClass = StringsHelper.join(" ").add(formLayoutProvider.getGroupStyleClass())
+                    .add(formLayoutProvider.getUnitsForXLargeStyleClasses(formLayoutProvider.getResolution() / groups * modelGroup.getRatio()))
+                    .add("cf-formlayout-group").toString();
+                List<Cell> cells = new ArrayList<>();
+                for (FormLayoutModel.Comp modelComp : modelGroup.getComps()) {
+                    String cellStyleClass = StringsHelper.join(" ")
+                            .add(formLayoutProvider.getUnitsStyleClasses(modelComp.getSingleGroupRatio(), modelComp.getRatio()))
+                            .add("cf-formlayout-cell").toString();
+                    cells.add(new Cell(index++, cellStyleClass));
+                }
+                rowGroups.add(new Group(groupStyleClass, Collections.unmodifiableList(cells)));
+            }
+            rows.add(new Row(rowStyleClass, Collections.unmodifiableList(rowGroups)));
+        }
+        return new FormLayoutSkeleton(Collections.unmodifiableList(rows));
+    }
+
+    private static <K, V> Map<K, V> createCache() {
+        return Collections.synchronizedMap(new LinkedHashMap<K, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        });
+    }
+
+    public List<Row> getRows() {
+        return rows;
+    }
+
+    public static class Row {
+        private final String styleClass;
+        private final List<Group> groups;
+
+        private Row(String styleClass, List<Group> groups) {
+            this.styleClass = styleClass;
+            this.groups = groups;
+        }
+
+        public String getStyleClass() {
+            return styleClass;
+        }
+
+        public List<Group> getGroups() {
+            return groups;
+        }
+    }
+
+    public static class Group {
+        private final String styleClass;
+        private final List<Cell> cells;
+
+        private Group(String styleClass, List<Cell> cells) {
+            this.styleClass = styleClass;
+            this.cells = cells;
+        }
+
+        public String getStyleClass() {
+            return styleClass;
+        }
+
+        public List<Cell> getCells() {
+            return cells;
+        }
+    }
+
+    public static class Cell {
+        private final int index;
+        private final String styleClass;
+
+        private Cell(int index, String styleClass) {
+            this.index = index;
+            this.styleClass = styleClass;
+        }
+
+        /**
+         * Gets the index of the cell's component within the children rendered.
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * Gets the style classes of the cell, without the component-specific style class.
+         */
+        public String getStyleClass() {
+            return styleClass;
+        }
+    }
+
+    private static class Key {
+        private final int groups;
+        private final String groupRatios;
+        private final int resolution;
+        private final int[] colspans;
+        private final int hashCode;
+
+        public Key(int groups, String groupRatios, int resolution, int[] colspans) {
+            this.groups = groups;
+            this.groupRatios = groupRatios;
+            this.resolution = resolution;
+            this.colspans = colspans;
+            this.hashCode = 31 * (31 * (31 * groups + groupRatios.hashCode()) + resolution) + Arrays.hashCode(colspans);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return groups == other.groups && resolution == other.resolution && groupRatios.equals(other.groupRatios)
+                    && Arrays.equals(colspans, other.colspans);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2015 CrudFaces / Nicolas Hofstetter (codebulb.ch).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package ch.codebulb.crudfaces.renderer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A streaming alternative to {@link FormLayoutModel}: It calculates the same layout incrementally while cells are
+ * added and reports rows, groups and cells to a {@link Visitor} as soon as they are complete.<p/>
+ *
+ * As a "form-group" container's markup depends on the colspans of all of its children (see {@link FormLayoutModel}),
+ * only the cells of the current group are buffered, hence memory consumption doesn't depend on the number of cells.
+ * As with {@link FormLayoutModel}, trailing cells which don't complete a group are dropped.
+ * <h2>Usage</h2>
+ * <ul>
+ * <li>Invoke the constructor: {@link #FormLayoutStream(int, int[], int, Visitor)}</li>
+ * <li>Subsequently {@link #add(Object, int)} each cell</li>
+ * <li>{@link #finish()}</li>
+ * </ul>
+ *
+ * @param <C> the type of the cells, e.g. {@link javax.faces.component.UIComponent}
+ * @author Nicolas Hofstetter (codebulb.ch)
+ * @since 0.2
+ */
+public class FormLayoutStream<C> {
+    private final int groups;
+    private final int[] groupRatios;
+    private final int groupRatioSum;
+    private final int resolution;
+    private final Visitor<C> visitor;
+
+    private int currentGroupCol;
+    private final List<C> currentCells = new ArrayList<>();
+    private final List<int[]> currentRatios = new ArrayList<>();
+    private int currentGroupSum;
+    private int currentRowRatioSum;
+    private boolean rowStarted;
+
+    /**
+     * @param groups user-defined groups number
+     * @param groupRatios user-defined groups ratios
+     * @param resolution resolution provided by {@link BootstrapFormLayoutProvider}
+     * @param visitor the visitor notified of the layout
+     */
+    public FormLayoutStream(int groups, int[] groupRatios, int resolution, Visitor<C> visitor) {
+        this.groups = groups;
+        this.groupRatios = groupRatios;
+        this.resolution = resolution;
+        this.visitor = visitor;
+        int sum = 0;
+        for (int ratio : groupRatios) {
+            sum += ratio;
+        }
+        this.groupRatioSum = sum;
+    }
+
+    public void add(C cell, int colspan) throws IOException {
+        if (!rowStarted) {
+            startRow();
+        }
+        else if (currentRowRatioSum >= groups) {
+            visitor.endRow();
+            startRow();
+        }
+
+        int colspanRatio = 0;
+        int singleGroupRatio = 0;
+        // with colspan: "devour" neighbor cells
+        for (int i = 0; i < colspan; i++) {
+            int currentGroupColRatio = groupRatios[currentGroupCol];
+            colspanRatio += currentGroupColRatio;
+            singleGroupRatio = (singleGroupRatio + currentGroupColRatio) % groupRatioSum;
+            currentGroupCol = (currentGroupCol + 1) % groupRatios.length;
+        }
+        currentCells.add(cell);
+        currentRatios.add(new int[]{colspanRatio, singleGroupRatio});
+        currentGroupSum += colspanRatio;
+
+        // end of the groupRatios array is reached: Close current group
+        if (currentGroupCol == 0) {
+            writeGroup();
+        }
+    }
+
+    /**
+     * Closes the current row. Cells of an incomplete group are dropped.
+     */
+    public void finish() throws IOException {
+        if (!rowStarted) {
+            startRow();
+        }
+        visitor.endRow();
+        currentCells.clear();
+        currentRatios.clear();
+    }
+
+    private void startRow() throws IOException {
+        rowStarted = true;
+        currentRowRatioSum = 0;
+        visitor.startRow();
+    }
+
+    private void writeGroup() throws IOException {
+        int groupRatio = currentGroupSum / resolution;
+        visitor.startGroup(groupRatio);
+        for (int i = 0; i < currentCells.size(); i++) {
+            int ratio = currentRatios.get(i)[0] / groupRatio;
+            // if group length == row length, always use the actual ratio
+            int singleGroupRatio = groupRatio == 1 ? ratio : currentRatios.get(i)[1];
+            visitor.cell(currentCells.get(i), singleGroupRatio, ratio);
+        }
+        visitor.endGroup();
+
+        currentRowRatioSum += groupRatio;
+        currentGroupSum = 0;
+        currentCells.clear();
+        currentRatios.clear();
+    }
+
+    /**
+     * Is notified of the layout calculated by a {@link FormLayoutStream}, in document order.
+     */
+    public static interface Visitor<C> {
+        public void startRow() throws IOException;
+
+        /**
+         * @param ratio the ratio of the group compared to the row, as {@link FormLayoutModel.Group#getRatio()}
+         */
+        public void startGroup(int ratio) throws IOException;
+
+        /**
+         * @param singleGroupRatio the ratio without colspan applied, as {@link FormLayoutModel.Comp#getSingleGroupRatio()}
+         * @param ratio the ratio within the group, as {@link FormLayoutModel.Comp#getRatio()}
+         */
+        public void cell(C cell, int singleGroupRatio, int ratio) throws IOException;
+
+        public void endGroup() throws IOException;
+
+        public void endRow() throws IOException;
+    }
+}
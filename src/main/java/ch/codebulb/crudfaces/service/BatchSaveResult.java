@@ -0,0 +1,56 @@
+/*
+ * Copyright 2015 CrudFaces / Nicolas Hofstetter (codebulb.ch).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package ch.codebulb.crudfaces.service;
+
+import ch.codebulb.crudfaces.model.CrudIdentifiable;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The result of {@link CrudService#saveAllChecked(java.util.Collection)}: The entities which have been saved, and the
+ * ids of the entities which have not been saved because of a conflicting concurrent modification.
+ *
+ * @author Nicolas Hofstetter (codebulb.ch)
+ * @since 0.2
+ */
+public class BatchSaveResult<T extends CrudIdentifiable> implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final List<T> saved;
+    private final Set<Long> conflictedIds;
+
+    public BatchSaveResult(List<T> saved, Set<Long> conflictedIds) {
+        this.saved = saved;
+        this.conflictedIds = conflictedIds;
+    }
+
+    /**
+     * Returns the saved entities, in the order of the non-conflicting entities provided.
+     */
+    public List<T> getSaved() {
+        return saved;
+    }
+
+    /**
+     * Returns the ids of the entities which have been modified or deleted concurrently and have thus not been saved.
+     */
+    public Set<Long> getConflictedIds() {
+        return Collections.unmodifiableSet(conflictedIds);
+    }
+
+    public boolean hasConflicts() {
+        return !conflictedIds.isEmpty();
+    }
+}
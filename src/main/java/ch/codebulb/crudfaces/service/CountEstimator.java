@@ -0,0 +1,30 @@
+/*
+ * Copyright 2015 CrudFaces / Nicolas Hofstetter (codebulb.ch).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package ch.codebulb.crudfaces.service;
+
+import javax.persistence.EntityManager;
+
+/**
+ * Estimates the number of entities of an entity type, typically from database statistics, for use with
+ * {@link CrudService.CountMode#APPROXIMATE}.
+ *
+ * @author Nicolas Hofstetter (codebulb.ch)
+ * @since 0.2
+ */
+public interface CountEstimator {
+    /**
+     * Returns the estimated number of entities of the entity type provided, or a negative number if no estimate
+     * is available, in which case an exact count is executed instead.
+     */
+    long estimateCount(EntityManager em, Class<?> entityType);
+}
@@ -14,12 +14,54 @@ package ch.codebulb.crudfaces.service;
 
 import ch.codebulb.crudfaces.model.CrudEntity;
 import ch.codebulb.crudfaces.model.CrudIdentifiable;
+import ch.codebulb.crudfaces.model.CrudVersioned;
+import ch.codebulb.crudfaces.model.VersionedCrudEntity;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.persistence.Cache;
+import javax.persistence.CacheRetrieveMode;
+import javax.persistence.EntityGraph;
 import javax.persistence.EntityManager;
+import javax.persistence.EntityNotFoundException;
+import javax.persistence.OptimisticLockException;
+import javax.persistence.Subgraph;
+import javax.persistence.Tuple;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaDelete;
 import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Order;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Selection;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.SingularAttribute;
+import javax.transaction.HeuristicMixedException;
+import javax.transaction.HeuristicRollbackException;
+import javax.transaction.NotSupportedException;
+import javax.transaction.RollbackException;
+import javax.transaction.Status;
+import javax.transaction.SystemException;
 import javax.transaction.Transactional;
+import javax.transaction.UserTransaction;
 
 /**
  * <p>
@@ -30,10 +72,11 @@ import javax.transaction.Transactional;
  * <p>
  * This service realizes the basic CRUD operations:</p>
  * <ul>
- * <li><b>Create (C):</b> <code>create()</code> + <code>save()</code></li>
- * <li><b>Read (R)</b>: <code>findById(Long id)</code> / <code>findAll()</code></li>
- * <li><b>Update (U)</b>: <code>save()</code></li>
- * <li><b>Delete (D)</b>: <code>delete()</code></li>
+ * <li><b>Create (C):</b> <code>create()</code> + <code>save()</code> / <code>saveAll()</code></li>
+ * <li><b>Read (R)</b>: <code>findById(Long id)</code> / <code>findAll()</code> /
+ * <code>find(first, max, sort, filters)</code> / <code>findAfter(lastId, limit, sort)</code></li>
+ * <li><b>Update (U)</b>: <code>save()</code> / <code>saveAll()</code></li>
+ * <li><b>Delete (D)</b>: <code>delete()</code> / <code>deleteAll()</code></li>
  * </ul>
  * <p>
  * In order to create a CRUD service for an entity type, make sure the entity
@@ -77,7 +120,7 @@ public class CustomerService extends CrudService&lt;Customer&gt; {
  * Conveniently, CrudFaces also comes with an alternative implementation of
  * <code>CrudService</code> named {@link CrudServiceMocked}. As its name
  * suggests, this implementation's "persistence" functionality is based on a
- * simple {@link HashMap} storing the saved entities. Whilst of no use in a
+ * {@link java.util.concurrent.ConcurrentSkipListMap} storing the saved entities in id order. Whilst of no use in a
  * real-world production environment, this class might come in handy if you want
  * to try something out without having a proper database / persistence
  * configuration set up. You may then use a {@link CrudServiceMocked}
@@ -98,7 +141,14 @@ public class CustomerService extends CrudService&lt;Customer&gt; {
  */
 @Transactional(Transactional.TxType.REQUIRED)
 public abstract class CrudService<T extends CrudIdentifiable> implements Serializable {
+    private static final String LOAD_GRAPH_HINT = "javax.persistence.loadgraph";
+    private static final String CACHE_RETRIEVE_MODE_HINT = "javax.persistence.cache.retrieveMode";
+    
     EntityManager em;
+    private int batchSize = 50;
+    private volatile Long cachedCount;
+    // incremented by every write, such that a count queried concurrently to a write is not cached
+    private long countGeneration;
     
     /**
      * Invokes the constructor for the entity type.
@@ -119,10 +169,27 @@ public abstract class CrudService<T extends CrudIdentifiable> implements Seriali
     }
     
     /**
-     * Returns the entity with the {@link CrudEntity#getId()} provided.
+     * Returns the entity with the {@link CrudEntity#getId()} provided.<p/>
+     * 
+     * In order to cache entity types which are read far more often than they are written, use the JPA second-level cache:
+     * Annotate the entity with <code>&#064;Cacheable</code> and set <code>shared-cache-mode</code> to
+     * <code>ENABLE_SELECTIVE</code> in the persistence unit. As opposed to sharing entity instances, every persistence
+     * context still gets its own managed instance, and the JPA provider keeps the cache consistent with the transactions
+     * which modify the entities.
+     * 
+     * @see #getCacheRetrieveMode()
      */
     public T findById(Long id) {
-        return em.find(getModelClass(), id);
+        return em.find(getModelClass(), id, Collections.<String, Object>singletonMap(CACHE_RETRIEVE_MODE_HINT, getCacheRetrieveMode()));
+    }
+    
+    /**
+     * Returns whether {@link #findById(Long)} reads the entity from the second-level cache, if it's cached there.
+     * Returns {@link CacheRetrieveMode#USE} by default; override this method to return {@link CacheRetrieveMode#BYPASS}
+     * to always read the entity from the database.
+     */
+    protected CacheRetrieveMode getCacheRetrieveMode() {
+        return CacheRetrieveMode.USE;
     }
     
     /**
@@ -135,27 +202,848 @@ public abstract class CrudService<T extends CrudIdentifiable> implements Seriali
     }
     
     /**
-     * Counts the number of entities.
+     * Returns one page of entities, sorted and filtered on the database.<p/>
+     * 
+     * Every filter entry maps a (possibly nested, dot-separated) property name to a filter value
+     * which is translated into a Criteria predicate by {@link #createPredicate(CriteriaBuilder, Root, String, Object)}.
+     * 
+     * @param first the index of the first entity to return
+     * @param max the maximum number of entities to return; a negative value means no limit
+     * @param sort the sort order; may be <code>null</code>
+     * @param filters the filter values by property name; may be <code>null</code>
+     */
+    public List<T> find(int first, int max, Sort sort, Map<String, Object> filters) {
+        return find(first, max, sort, filters, null);
+    }
+    
+    /**
+     * Returns one page of entities, sorted and filtered on the database, and loads the associations
+     * of the entity graph provided together with the entities (instead of lazily, one by one).
+     * 
+     * @param graph the entity graph, as returned by {@link #createEntityGraph(String...)} or {@link #getEntityGraph(String)};
+     * may be <code>null</code>
+     * @see #find(int, int, Sort, Map)
+     */
+    public List<T> find(int first, int max, Sort sort, Map<String, Object> filters, EntityGraph<?> graph) {
+        return find(first, max, sort, filters, graph, Collections.<Long>emptyList());
+    }
+    
+    /**
+     * Returns one page of entities, sorted and filtered on the database, skipping the entities with the ids provided,
+     * e.g. entities removed but not yet deleted.
+     * 
+     * @param excludedIds the ids of the entities to skip
+     * @see #find(int, int, Sort, Map, EntityGraph)
+     */
+    public List<T> find(int first, int max, Sort sort, Map<String, Object> filters, EntityGraph<?> graph, Collection<Long> excludedIds) {
+        CriteriaBuilder cb = em.getCriteriaBuilder();
+        CriteriaQuery<T> query = cb.createQuery(getModelClass());
+        Root<T> root = query.from(getModelClass());
+        query.select(root);
+        query.where(createPredicates(cb, root, filters, excludedIds));
+        query.orderBy(createOrders(cb, root, sort));
+        
+        TypedQuery<T> typedQuery = em.createQuery(query);
+        typedQuery.setFirstResult(first);
+        if (max >= 0) {
+            typedQuery.setMaxResults(max);
+        }
+        if (graph != null) {
+            typedQuery.setHint(LOAD_GRAPH_HINT, graph);
+        }
+        return typedQuery.getResultList();
+    }
+    
+    /**
+     * Returns a List of all entities, loading the associations of the entity graph provided together with the entities.
+     * 
+     * @see #find(int, int, Sort, Map, EntityGraph)
+     */
+    public List<T> findAll(EntityGraph<?> graph) {
+        return find(0, -1, null, null, graph);
+    }
+    
+    /**
+     * Returns the entity with the {@link CrudEntity#getId()} provided, loading the associations of the entity graph
+     * provided together with the entity.
+     * 
+     * @see #find(int, int, Sort, Map, EntityGraph)
+     */
+    public T findById(Long id, EntityGraph<?> graph) {
+        if (graph == null) {
+            return findById(id);
+        }
+        return em.find(getModelClass(), id, Collections.<String, Object>singletonMap(LOAD_GRAPH_HINT, graph));
+    }
+
+    /**
+     * Returns the entities with the {@link CrudEntity#getId()}s provided, in the order of the ids provided, using
+     * <code>SELECT ... WHERE id IN (...)</code> queries of at most {@link #getMaxInClauseSize()} ids each.
+     * Ids of entities which don't exist (anymore) are skipped.
+     */
+    public List<T> findByIds(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        Map<Long, T> entitiesById = new HashMap<>();
+        List<Long> idList = new ArrayList<>(ids);
+        for (int i = 0; i < idList.size(); i += getMaxInClauseSize()) {
+            List<Long> chunk = idList.subList(i, Math.min(i + getMaxInClauseSize(), idList.size()));
+            CriteriaQuery<T> query = em.getCriteriaBuilder().createQuery(getModelClass());
+            Root<T> root = query.from(getModelClass());
+            query.select(root);
+            query.where(getIdPath(root).in(chunk));
+            for (T entity : em.createQuery(query).getResultList()) {
+                entitiesById.put(entity.getId(), entity);
+            }
+        }
+
+        List<T> ret = new ArrayList<>(entitiesById.size());
+        for (Long id : idList) {
+            T entity = entitiesById.get(id);
+            if (entity != null) {
+                ret.add(entity);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Returns one page of DTO projections of the entities, sorted and filtered on the database: Only the (possibly nested,
+     * dot-separated) properties provided are selected and passed to the constructor of the projection type, in order.
+     * 
+     * @param projectionType the projection type, which must provide a constructor taking the properties provided
+     * @param properties the properties to select
+     * @see #find(int, int, Sort, Map)
+     */
+    public <P> List<P> findProjected(Class<P> projectionType, List<String> properties, int first, int max, Sort sort, Map<String, Object> filters) {
+        CriteriaBuilder cb = em.getCriteriaBuilder();
+        CriteriaQuery<P> query = cb.createQuery(projectionType);
+        Root<T> root = query.from(getModelClass());
+        List<Selection<?>> selections = new ArrayList<>();
+        for (String property : properties) {
+            selections.add(getPath(root, property));
+        }
+        query.select(cb.construct(projectionType, selections.toArray(new Selection<?>[selections.size()])));
+        query.where(createPredicates(cb, root, filters));
+        query.orderBy(createOrders(cb, root, sort));
+        
+        TypedQuery<P> typedQuery = em.createQuery(query);
+        typedQuery.setFirstResult(first);
+        if (max >= 0) {
+            typedQuery.setMaxResults(max);
+        }
+        return typedQuery.getResultList();
+    }
+    
+    /**
+     * Returns the named entity graph with the name provided, as declared by <code>&#064;NamedEntityGraph</code>.
+     */
+    public EntityGraph<?> getEntityGraph(String name) {
+        return em.getEntityGraph(name);
+    }
+    
+    /**
+     * Creates a dynamic entity graph which includes the (possibly nested, dot-separated) attributes provided.
+     */
+    public EntityGraph<T> createEntityGraph(String... attributes) {
+        EntityGraph<T> ret = em.createEntityGraph(getModelClass());
+        for (String attribute : attributes) {
+            String[] parts = attribute.split("\\.");
+            if (parts.length == 1) {
+                ret.addAttributeNodes(attribute);
+                continue;
+            }
+            Subgraph<?> subgraph = ret.addSubgraph(parts[0]);
+            for (int i = 1; i < parts.length - 1; i++) {
+                subgraph = subgraph.addSubgraph(parts[i]);
+            }
+            subgraph.addAttributeNodes(parts[parts.length - 1]);
+        }
+        return ret;
+    }
+    
+    /**
+     * Returns the page of entities following the entity with the id provided in the sort order provided, using
+     * keyset ("seek") pagination: Unlike with {@link #find(int, int, Sort, Map)}, the cost of fetching a page does
+     * not grow with its position.
+     * 
+     * @see #findAfter(Long, int, Sort, Map)
+     */
+    public List<T> findAfter(Long lastId, int limit, Sort sort) {
+        return findAfter(lastId, limit, sort, null);
+    }
+    
+    /**
+     * Returns the page of entities matching the filters provided which follows the entity with the id provided in the
+     * sort order provided, using keyset ("seek") pagination: Unlike with {@link #find(int, int, Sort, Map)}, the cost
+     * of fetching a page does not grow with its position.<p/>
+     * 
+     * Entities are always sorted by id last, which makes the order unique. <b>Note:</b> The sort properties must not
+     * hold <code>null</code> values.
+     * 
+     * @param lastId the id of the last entity of the previous page, or <code>null</code> to fetch the first page
+     * @param limit the maximum number of entities to return
+     * @param sort the sort order; may be <code>null</code> to sort by id only
+     * @param filters the filter values by property name; may be <code>null</code>
+     */
+    public List<T> findAfter(Long lastId, int limit, Sort sort, Map<String, Object> filters) {
+        return createFindAfterQuery(lastId, limit, sort, filters, false).getResultList();
+    }
+    
+    /**
+     * Returns the page of entities matching the filters provided which precedes the entity with the id provided in the
+     * sort order provided, in this sort order, using keyset ("seek") pagination.
+     * 
+     * @param firstId the id of the first entity of the following page
+     * @see #findAfter(Long, int, Sort, Map)
+     */
+    public List<T> findBefore(Long firstId, int limit, Sort sort, Map<String, Object> filters) {
+        List<T> ret = new ArrayList<>(createFindAfterQuery(firstId, limit, sort, filters, true).getResultList());
+        Collections.reverse(ret);
+        return ret;
+    }
+    
+    private TypedQuery<T> createFindAfterQuery(Long lastId, int limit, Sort sort, Map<String, Object> filters, boolean backwards) {
+        CriteriaBuilder cb = em.getCriteriaBuilder();
+        CriteriaQuery<T> query = cb.createQuery(getModelClass());
+        Root<T> root = query.from(getModelClass());
+        query.select(root);
+        
+        List<Predicate> predicates = new ArrayList<>(Arrays.asList(createPredicates(cb, root, filters)));
+        if (lastId != null) {
+            predicates.add(createKeysetPredicate(cb, root, lastId, sort, backwards));
+        }
+        query.where(predicates.toArray(new Predicate[predicates.size()]));
+        List<Order> orders = new ArrayList<>();
+        if (sort != null) {
+            for (Sort.Field field : sort.getFields()) {
+                Path<?> path = getPath(root, field.getProperty());
+                orders.add(field.isAscending() != backwards ? cb.asc(path) : cb.desc(path));
+            }
+        }
+        orders.add(backwards ? cb.desc(getIdPath(root)) : cb.asc(getIdPath(root)));
+        query.orderBy(orders);
+        
+        return em.createQuery(query).setMaxResults(limit);
+    }
+    
+    /**
+     * Returns an Iterable which lazily walks through all entities matching the filters provided in the sort order
+     * provided, fetching them page by page with {@link #findAfter(Long, int, Sort, Map)}.
+     */
+    public Iterable<T> iterate(final Sort sort, final Map<String, Object> filters, final int pageSize) {
+        return new Iterable<T>() {
+            @Override
+            public Iterator<T> iterator() {
+                return new KeysetIterator(sort, filters, pageSize, false);
+            }
+        };
+    }
+    
+    /**
+     * Returns an Iterable which lazily walks through all entities matching the filters provided, in id order,
+     * for processing large result sets (e.g. exports) with constant memory consumption.<p/>
+     * 
+     * The entities are fetched in pages of <code>fetchSize</code> entities (which is passed on as JDBC fetch size
+     * hint, too), and the persistence context is cleared before each page is fetched.<p/>
+     * <b>Note:</b> Because the persistence context is cleared, don't use this method in a transaction
+     * which holds pending changes, and don't expect the entities returned to stay managed.
+     */
+    public Iterable<T> stream(final Map<String, Object> filters, final int fetchSize) {
+        return new Iterable<T>() {
+            @Override
+            public Iterator<T> iterator() {
+                return new KeysetIterator(null, filters, fetchSize, true);
+            }
+        };
+    }
+    
+    /**
+     * Builds the predicate which selects the entities following the entity with the id provided: Lexicographically
+     * "greater" in all sort properties, and finally in the id; or "less" if going backwards.
+     */
+    private Predicate createKeysetPredicate(CriteriaBuilder cb, Root<T> root, Long lastId, Sort sort, boolean backwards) {
+        List<Sort.Field> fields = sort != null ? sort.getFields() : new ArrayList<Sort.Field>();
+        Object[] lastValues = findSortValues(lastId, fields);
+        
+        List<Predicate> alternatives = new ArrayList<>();
+        List<Predicate> equalSoFar = new ArrayList<>();
+        for (int i = 0; i < fields.size(); i++) {
+            Expression<Comparable> path = (Expression<Comparable>) getPath(root, fields.get(i).getProperty());
+            Comparable value = (Comparable) lastValues[i];
+            
+            List<Predicate> alternative = new ArrayList<>(equalSoFar);
+            alternative.add(fields.get(i).isAscending() != backwards ? cb.greaterThan(path, value) : cb.lessThan(path, value));
+            alternatives.add(cb.and(alternative.toArray(new Predicate[alternative.size()])));
+            equalSoFar.add(cb.equal(path, value));
+        }
+        equalSoFar.add(backwards ? cb.lessThan(getIdPath(root), lastId) : cb.greaterThan(getIdPath(root), lastId));
+        alternatives.add(cb.and(equalSoFar.toArray(new Predicate[equalSoFar.size()])));
+        
+        return cb.or(alternatives.toArray(new Predicate[alternatives.size()]));
+    }
+    
+    private Object[] findSortValues(Long id, List<Sort.Field> fields) {
+        if (fields.isEmpty()) {
+            return new Object[0];
+        }
+        
+        CriteriaBuilder cb = em.getCriteriaBuilder();
+        CriteriaQuery<Tuple> query = cb.createTupleQuery();
+        Root<T> root = query.from(getModelClass());
+        List<Selection<?>> selections = new ArrayList<>();
+        for (Sort.Field field : fields) {
+            selections.add(getPath(root, field.getProperty()));
+        }
+        query.multiselect(selections);
+        query.where(cb.equal(getIdPath(root), id));
+        
+        List<Tuple> result = em.createQuery(query).getResultList();
+        if (result.isEmpty()) {
+            throw new IllegalArgumentException("Cannot seek after entity with id " + id + ": entity not found");
+        }
+        return result.get(0).toArray();
+    }
+    
+    /**
+     * Walks through all entities page by page using keyset pagination.
+     */
+    private class KeysetIterator implements Iterator<T> {
+        private final Sort sort;
+        private final Map<String, Object> filters;
+        private final int pageSize;
+        private final boolean streaming;
+        
+        private List<T> page = new ArrayList<>();
+        private int index;
+        private Long lastId;
+        private boolean lastPage;
+
+        public KeysetIterator(Sort sort, Map<String, Object> filters, int pageSize, boolean streaming) {
+            if (pageSize < 1) {
+                throw new IllegalArgumentException("Page size must be positive, but was " + pageSize);
+            }
+            this.sort = sort;
+            this.filters = filters;
+            this.pageSize = pageSize;
+            this.streaming = streaming;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (index < page.size()) {
+                return true;
+            }
+            if (lastPage) {
+                return false;
+            }
+            
+            TypedQuery<T> query = createFindAfterQuery(lastId, pageSize, sort, filters, false);
+            if (streaming) {
+                // detach the previous page
+                em.clear();
+                // provider-specific hints; unknown hints are ignored
+                query.setHint("org.hibernate.fetchSize", pageSize);
+                query.setHint("eclipselink.jdbc.fetch-size", pageSize);
+            }
+            page = query.getResultList();
+            index = 0;
+            lastPage = page.size() < pageSize;
+            if (!page.isEmpty()) {
+                lastId = page.get(page.size() - 1).getId();
+            }
+            return !page.isEmpty();
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return page.get(index++);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+    
+    /**
+     * Holds the supported strategies of {@link CrudService#countAll()}.
+     */
+    public static enum CountMode {
+        /**
+         * Always executes a <code>COUNT</code> query.
+         */
+        EXACT,
+        /**
+         * Executes a <code>COUNT</code> query once and caches its result until entities are saved or deleted
+         * through the same service instance. Changes made through other means are not detected.
+         * Only the total count is cached; {@link CrudService#count(Map)} with filters always executes a query.
+         */
+        CACHED,
+        /**
+         * Asks the {@link CrudService#getCountEstimator()} for an estimate, e.g. based on database statistics.
+         */
+        APPROXIMATE
+    }
+    
+    /**
+     * Returns the strategy used by {@link #countAll()}. Defaults to {@link CountMode#EXACT}; override this method
+     * to choose another strategy.
+     */
+    protected CountMode getCountMode() {
+        return CountMode.EXACT;
+    }
+    
+    /**
+     * Returns the {@link CountEstimator} used in {@link CountMode#APPROXIMATE} mode, e.g. a {@link PostgreSqlCountEstimator}.
+     * Override this method if you use that mode.
+     */
+    protected CountEstimator getCountEstimator() {
+        return null;
+    }
+    
+    /**
+     * Counts the number of entities, using the {@link #getCountMode()} strategy.
      */
     public long countAll() {
+        switch (getCountMode()) {
+            case EXACT: return countAllExact();
+            case CACHED: {
+                Long ret = cachedCount;
+                if (ret == null) {
+                    long generation = getCountGeneration();
+                    ret = countAllExact();
+                    cacheCount(ret, generation);
+                }
+                return ret;
+            }
+            case APPROXIMATE: {
+                if (getCountEstimator() == null) {
+                    throw new IllegalStateException("No count estimator configured for count mode " + CountMode.APPROXIMATE);
+                }
+                long ret = getCountEstimator().estimateCount(em, getModelClass());
+                return ret >= 0 ? ret : countAllExact();
+            }
+            default: throw new IllegalArgumentException("Count mode not recognized: " + getCountMode());
+        }
+    }
+    
+    /**
+     * Counts the number of entities with a <code>COUNT</code> query.
+     */
+    protected long countAllExact() {
         CriteriaQuery<Long> query = em.getCriteriaBuilder().createQuery(Long.class);
         query.select(em.getCriteriaBuilder().count(query.from(getModelClass())));
         return em.createQuery(query).getSingleResult();
     }
     
+    private synchronized long getCountGeneration() {
+        return countGeneration;
+    }
+    
+    private synchronized void cacheCount(long count, long generation) {
+        if (generation == countGeneration) {
+            cachedCount = count;
+        }
+    }
+    
+    /**
+     * Discards the count cached in {@link CountMode#CACHED} mode. Invoked by every method which saves or deletes entities.
+     */
+    protected synchronized void invalidateCachedCount() {
+        countGeneration++;
+        cachedCount = null;
+    }
+    
+    /**
+     * Counts the number of entities matching the filters provided.
+     * 
+     * @see #find(int, int, Sort, Map)
+     */
+    public long count(Map<String, Object> filters) {
+        if (filters == null || filters.isEmpty()) {
+            return countAll();
+        }
+        
+        CriteriaBuilder cb = em.getCriteriaBuilder();
+        CriteriaQuery<Long> query = cb.createQuery(Long.class);
+        Root<T> root = query.from(getModelClass());
+        query.select(cb.count(root));
+        query.where(createPredicates(cb, root, filters));
+        return em.createQuery(query).getSingleResult();
+    }
+    
+    /**
+     * Counts the number of entities matching the filters provided, skipping the entities with the ids provided.
+     * 
+     * @see #find(int, int, Sort, Map, EntityGraph, Collection)
+     */
+    public long count(Map<String, Object> filters, Collection<Long> excludedIds) {
+        if (excludedIds.isEmpty()) {
+            return count(filters);
+        }
+        
+        CriteriaBuilder cb = em.getCriteriaBuilder();
+        CriteriaQuery<Long> query = cb.createQuery(Long.class);
+        Root<T> root = query.from(getModelClass());
+        query.select(cb.count(root));
+        query.where(createPredicates(cb, root, filters, excludedIds));
+        return em.createQuery(query).getSingleResult();
+    }
+    
+    private Predicate[] createPredicates(CriteriaBuilder cb, Root<T> root, Map<String, Object> filters, Collection<Long> excludedIds) {
+        List<Predicate> ret = new ArrayList<>(Arrays.asList(createPredicates(cb, root, filters)));
+        List<Long> idList = new ArrayList<>(excludedIds);
+        for (int i = 0; i < idList.size(); i += getMaxInClauseSize()) {
+            ret.add(cb.not(getIdPath(root).in(idList.subList(i, Math.min(i + getMaxInClauseSize(), idList.size())))));
+        }
+        return ret.toArray(new Predicate[ret.size()]);
+    }
+    
+    /**
+     * Translates the filters provided into Criteria predicates, ignoring filter values for which
+     * {@link #createPredicate(CriteriaBuilder, Root, String, Object)} returns <code>null</code>.
+     */
+    protected Predicate[] createPredicates(CriteriaBuilder cb, Root<T> root, Map<String, Object> filters) {
+        List<Predicate> ret = new ArrayList<>();
+        if (filters != null) {
+            for (Map.Entry<String, Object> filter : filters.entrySet()) {
+                Predicate predicate = createPredicate(cb, root, filter.getKey(), filter.getValue());
+                if (predicate != null) {
+                    ret.add(predicate);
+                }
+            }
+        }
+        return ret.toArray(new Predicate[ret.size()]);
+    }
+    
+    /**
+     * Translates a single filter value into a Criteria predicate. Override this method to support custom filter semantics.<p/>
+     * 
+     * By default, the filter value is normalized by {@link EntityFilter#normalize(Class, Object)} and translated with
+     * the same semantics as {@link EntityFilter} applies in memory; values which don't filter anything are ignored
+     * (<code>null</code> is returned).
+     */
+    protected Predicate createPredicate(CriteriaBuilder cb, Root<T> root, String property, Object value) {
+        Path<?> path = getPath(root, property);
+        value = EntityFilter.normalize(path.getJavaType(), value);
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof Collection) {
+            return path.in((Collection<?>) value);
+        }
+        if (value instanceof String && path.getJavaType() == String.class) {
+            return cb.like(cb.lower((Expression<String>) path), escapeLike(((String) value).toLowerCase(Locale.ROOT)) + "%", '\\');
+        }
+        if (value instanceof String) {
+            // not convertible to the property type
+            return cb.equal(path.as(String.class), value);
+        }
+        if (value instanceof Boolean) {
+            return cb.or(cb.isNull(path), cb.equal(path, value));
+        }
+        if (value instanceof Date[]) {
+            Date[] range = (Date[]) value;
+            Expression<Date> datePath = (Expression<Date>) path;
+            if (range[0] == null) {
+                return cb.lessThanOrEqualTo(datePath, range[1]);
+            }
+            if (range[1] == null) {
+                return cb.greaterThanOrEqualTo(datePath, range[0]);
+            }
+            return cb.between(datePath, range[0], range[1]);
+        }
+        return cb.equal(path, value);
+    }
+    
+    /**
+     * Translates the sort provided into Criteria orders.
+     */
+    protected List<Order> createOrders(CriteriaBuilder cb, Root<T> root, Sort sort) {
+        List<Order> ret = new ArrayList<>();
+        if (sort != null) {
+            for (Sort.Field field : sort.getFields()) {
+                Path<?> path = getPath(root, field.getProperty());
+                ret.add(field.isAscending() ? cb.asc(path) : cb.desc(path));
+            }
+        }
+        return ret;
+    }
+    
+    /**
+     * Resolves the (possibly nested, dot-separated) property path provided.
+     */
+    protected static Path<?> getPath(Root<?> root, String property) {
+        Path<?> ret = root;
+        for (String part : property.split("\\.")) {
+            ret = ret.get(part);
+        }
+        return ret;
+    }
+    
+    /**
+     * Resolves the path of the id attribute as mapped by the entity type.
+     */
+    protected Path<Long> getIdPath(Root<T> root) {
+        return root.get(em.getMetamodel().entity(getModelClass()).getId(Long.class));
+    }
+    
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+    
     /**
      * Saves / Inserts / Updates the entity provided and returns the updated entity (e.g. updated {@link CrudEntity#getId()} field.<p/>
      * <b>Note:</b> It's important to continue to work with the newly returned, updated entity rather than with the original entity.
      */
     public T save(T entity) {        
+        entity = persistOrMerge(entity);
+        em.flush();
+        invalidateCachedCount();
+        return entity;
+    }
+    
+    /**
+     * Saves / Inserts / Updates all the entities provided and returns the updated entities, in the same order.<p/>
+     * 
+     * Rather than flushing after every entity as {@link #save(CrudIdentifiable)} does, the persistence context is
+     * flushed every {@link #getBatchSize()} entities, and the entities saved by that batch are detached from it. This keeps
+     * the persistence context small and allows the JPA provider to group the statements into JDBC batches (which typically
+     * must be enabled in the persistence unit configuration, e.g. <code>hibernate.jdbc.batch_size</code>). Other entities
+     * managed by the persistence context are not detached.<p/>
+     * <b>Note:</b> It's important to continue to work with the newly returned, updated entities rather than with the
+     * original entities. Entities of all but the last batch are detached when they are returned, hence changes applied to
+     * them afterwards are not saved unless they are saved again.
+     */
+    public List<T> saveAll(Collection<T> entities) {
+        List<T> ret = new ArrayList<>(entities.size());
+        List<T> batch = new ArrayList<>(Math.min(batchSize, entities.size()));
+        for (T entity : entities) {
+            T saved = persistOrMerge(entity);
+            ret.add(saved);
+            batch.add(saved);
+            if (batch.size() == batchSize) {
+                em.flush();
+                detach(batch);
+            }
+        }
+        em.flush();
+        invalidateCachedCount();
+        return ret;
+    }
+    
+    private void detach(List<?> batch) {
+        for (Object entity : batch) {
+            em.detach(entity);
+        }
+        batch.clear();
+    }
+    
+    /**
+     * Saves all the entities provided like {@link #saveAll(Collection)}, except for entities which have been modified
+     * or deleted concurrently: Their ids are reported in the {@link BatchSaveResult} instead, and they are not saved,
+     * without aborting the entire batch.<p/>
+     * 
+     * Conflicts are detected for entities implementing {@link CrudVersioned} (e.g. by extending {@link VersionedCrudEntity})
+     * by comparing their version with the current value of the <code>&#064;Version</code> attribute in the persistence
+     * storage, fetched with one query per chunk of {@link #getBatchSize()} entities. For other entities, and for entity
+     * types without a version attribute, this method behaves like {@link #saveAll(Collection)}.<p/>
+     * 
+     * As a concurrent modification can still happen between this check and the actual update, each chunk is saved in a
+     * transaction of its own (see {@link #getUserTransaction()}): If the persistence provider rejects the chunk with an
+     * {@link OptimisticLockException}, it's rolled back and its entities are saved one by one, such that only the
+     * conflicting entities are reported. Hence, this method doesn't take part in the caller's transaction, and chunks
+     * saved successfully are not rolled back if a later chunk fails with an exception other than a conflict.
+     */
+    @Transactional(Transactional.TxType.NOT_SUPPORTED)
+    public BatchSaveResult<T> saveAllChecked(Collection<T> entities) {
+        SingularAttribute<? super T, ?> versionAttribute = getVersionAttribute();
+        List<T> entityList = new ArrayList<>(entities);
+        List<T> saved = new ArrayList<>(entityList.size());
+        Set<Long> conflictedIds = new LinkedHashSet<>();
+        for (int i = 0; i < entityList.size(); i += batchSize) {
+            List<T> chunk = entityList.subList(i, Math.min(i + batchSize, entityList.size()));
+            if (!saveChecked(chunk, versionAttribute, saved, conflictedIds)) {
+                // isolate the conflicting entities
+                for (T entity : chunk) {
+                    if (!saveChecked(Collections.singletonList(entity), versionAttribute, saved, conflictedIds)) {
+                        conflictedIds.add(entity.getId());
+                    }
+                }
+            }
+        }
+        return new BatchSaveResult<>(saved, conflictedIds);
+    }
+    
+    /**
+     * Saves the non-conflicting entities of the chunk provided in a new transaction.
+     * 
+     * @return <code>false</code> if the transaction has been rolled back because of a conflict, in which case
+     * the entities are reset to their previous state and nothing is added to the results
+     */
+    private boolean saveChecked(List<T> chunk, SingularAttribute<? super T, ?> versionAttribute, List<T> saved, Set<Long> conflictedIds) {
+        // persisting / merging assigns ids / versions, which must be reset if the transaction is rolled back
+        List<Long> ids = new ArrayList<>(chunk.size());
+        List<Long> versions = new ArrayList<>(chunk.size());
+        for (T entity : chunk) {
+            ids.add(entity.getId());
+            versions.add(entity instanceof CrudVersioned ? ((CrudVersioned) entity).getVersion() : null);
+        }
+        
+        UserTransaction transaction = getUserTransaction();
+        try {
+            transaction.begin();
+            try {
+                Set<Long> chunkConflictedIds = findConflicts(chunk, versionAttribute);
+                List<T> nonConflicting = new ArrayList<>(chunk.size());
+                for (T entity : chunk) {
+                    if (!chunkConflictedIds.contains(entity.getId())) {
+                        nonConflicting.add(entity);
+                    }
+                }
+                List<T> chunkSaved = saveAll(nonConflicting);
+                transaction.commit();
+                saved.addAll(chunkSaved);
+                conflictedIds.addAll(chunkConflictedIds);
+                return true;
+            }
+            catch (OptimisticLockException ex) {
+                transaction.rollback();
+                reset(chunk, ids, versions);
+                return false;
+            }
+            catch (RuntimeException ex) {
+                if (transaction.getStatus() != Status.STATUS_NO_TRANSACTION) {
+                    transaction.rollback();
+                }
+                throw ex;
+            }
+        }
+        catch (RollbackException ex) {
+            // optimistic lock failures may be detected upon commit only
+            reset(chunk, ids, versions);
+            return false;
+        }
+        catch (NotSupportedException | SystemException | HeuristicMixedException | HeuristicRollbackException ex) {
+            throw new IllegalStateException("Cannot save entities in a transaction of their own", ex);
+        }
+    }
+    
+    private static <T extends CrudIdentifiable> void reset(List<T> chunk, List<Long> ids, List<Long> versions) {
+        for (int i = 0; i < chunk.size(); i++) {
+            chunk.get(i).setId(ids.get(i));
+            if (chunk.get(i) instanceof CrudVersioned) {
+                ((CrudVersioned) chunk.get(i)).setVersion(versions.get(i));
+            }
+        }
+    }
+    
+    /**
+     * Returns the ids of the {@link CrudVersioned} entities provided which have been modified or deleted concurrently.
+     */
+    private Set<Long> findConflicts(List<T> entities, SingularAttribute<? super T, ?> versionAttribute) {
+        Set<Long> ret = new HashSet<>();
+        if (versionAttribute == null) {
+            return ret;
+        }
+        List<Long> versionedIds = new ArrayList<>();
+        for (T entity : entities) {
+            if (entity instanceof CrudVersioned && entity.getId() != null) {
+                versionedIds.add(entity.getId());
+            }
+        }
+        Map<Long, Object> currentVersions = findVersions(versionedIds, versionAttribute);
+        for (T entity : entities) {
+            if (entity instanceof CrudVersioned && entity.getId() != null) {
+                // a missing entity has been deleted concurrently
+                if (!currentVersions.containsKey(entity.getId())
+                        || !Objects.equals(normalizeVersion(currentVersions.get(entity.getId())), normalizeVersion(((CrudVersioned) entity).getVersion()))) {
+                    ret.add(entity.getId());
+                }
+            }
+        }
+        return ret;
+    }
+    
+    /**
+     * Returns the current values of the version attribute by id of the entities with the ids provided; deleted entities are missing.
+     */
+    private Map<Long, Object> findVersions(List<Long> ids, SingularAttribute<? super T, ?> versionAttribute) {
+        Map<Long, Object> ret = new HashMap<>();
+        if (ids.isEmpty()) {
+            return ret;
+        }
+        
+        CriteriaBuilder cb = em.getCriteriaBuilder();
+        for (int i = 0; i < ids.size(); i += getMaxInClauseSize()) {
+            List<Long> chunk = ids.subList(i, Math.min(i + getMaxInClauseSize(), ids.size()));
+            CriteriaQuery<Tuple> query = cb.createTupleQuery();
+            Root<T> root = query.from(getModelClass());
+            query.multiselect(getIdPath(root), root.get(versionAttribute));
+            query.where(getIdPath(root).in(chunk));
+            for (Tuple tuple : em.createQuery(query).getResultList()) {
+                ret.put((Long) tuple.get(0), tuple.get(1));
+            }
+        }
+        return ret;
+    }
+    
+    /**
+     * Returns the <code>&#064;Version</code> attribute of the entity type, or <code>null</code> if there is none.
+     */
+    private SingularAttribute<? super T, ?> getVersionAttribute() {
+        EntityType<T> entityType = em.getMetamodel().entity(getModelClass());
+        if (!entityType.hasVersionAttribute()) {
+            return null;
+        }
+        for (SingularAttribute<? super T, ?> attribute : entityType.getSingularAttributes()) {
+            if (attribute.isVersion()) {
+                return attribute;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Makes the versions of the numeric and timestamp types supported by JPA comparable with {@link CrudVersioned#getVersion()}.
+     */
+    private static Object normalizeVersion(Object version) {
+        if (version instanceof Number) {
+            return ((Number) version).longValue();
+        }
+        if (version instanceof Date) {
+            return ((Date) version).getTime();
+        }
+        return version;
+    }
+    
+    /**
+     * Returns the transaction used by {@link #saveAllChecked(Collection)} to save each chunk. Defaults to the
+     * Java EE <code>UserTransaction</code>.
+     */
+    protected UserTransaction getUserTransaction() {
+        try {
+            return (UserTransaction) new InitialContext().lookup("java:comp/UserTransaction");
+        }
+        catch (NamingException ex) {
+            throw new IllegalStateException("No UserTransaction available", ex);
+        }
+    }
+    
+    private T persistOrMerge(T entity) {
         if (entity.getId() == null) {
             em.persist(entity);
+            return entity;
         }
         else {
-            entity = em.merge(entity);
+            return em.merge(entity);
         }
-        em.flush();
-        return entity;
     }
     
     /**
@@ -164,5 +1052,118 @@ public abstract class CrudService<T extends CrudIdentifiable> implements Seriali
     public void delete(Long id) {
         T entity = em.getReference(getModelClass(), id);
         em.remove(entity);
+        invalidateCachedCount();
+    }
+    
+    /**
+     * Deletes all the entities with the {@link CrudEntity#getId()}s provided, flushing the persistence context and
+     * detaching the entities deleted every {@link #getBatchSize()} entities.
+     * 
+     * @see #saveAll(Collection)
+     */
+    public void deleteAll(Collection<Long> ids) {
+        List<T> batch = new ArrayList<>(Math.min(batchSize, ids.size()));
+        for (Long id : ids) {
+            T entity = em.getReference(getModelClass(), id);
+            em.remove(entity);
+            batch.add(entity);
+            if (batch.size() == batchSize) {
+                em.flush();
+                detach(batch);
+            }
+        }
+        em.flush();
+        invalidateCachedCount();
+    }
+
+    /**
+     * Deletes all the entities with the {@link CrudEntity#getId()}s provided using bulk <code>DELETE ... WHERE id IN (...)</code>
+     * statements of at most {@link #getMaxInClauseSize()} ids each.
+     * 
+     * @see #deleteByIds(Collection, boolean)
+     */
+    public int deleteByIds(Collection<Long> ids) {
+        return deleteByIds(ids, false);
+    }
+    
+    /**
+     * Deletes all the entities with the {@link CrudEntity#getId()}s provided using bulk <code>DELETE ... WHERE id IN (...)</code>
+     * statements of at most {@link #getMaxInClauseSize()} ids each, and returns the number of entities deleted.<p/>
+     * 
+     * Unlike {@link #delete(Long)} / {@link #deleteAll(Collection)}, which remove each entity through the persistence context,
+     * bulk deletes are executed on the database directly:
+     * <ul>
+     * <li>Neither cascading (e.g. <code>CascadeType.REMOVE</code>, orphan removal) nor entity lifecycle callbacks
+     * (e.g. <code>&#064;PreRemove</code>) are applied, and no optimistic lock check is done. Use {@link #deleteAll(Collection)}
+     * if you rely on these.</li>
+     * <li>Instances of the deleted entities which are managed by the persistence context or held by the second-level cache
+     * are not updated. Unless <code>evict</code> is <code>true</code>, they remain stale until the persistence context ends.</li>
+     * <li>Ids of entities which don't exist are ignored; they don't count towards the number of entities returned.</li>
+     * </ul>
+     * 
+     * @param ids the ids of the entities to delete
+     * @param evict if <code>true</code>, pending changes are flushed before, the instances of the entities deleted are
+     * detached from the persistence context (other entities stay managed) and evicted from the second-level cache,
+     * so that no stale instances remain
+     * @return the number of entities deleted
+     */
+    public int deleteByIds(Collection<Long> ids, boolean evict) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        if (evict) {
+            em.flush();
+            for (Long id : ids) {
+                // the managed instance if there is one, or else an uninitialized reference
+                try {
+                    em.detach(em.getReference(getModelClass(), id));
+                }
+                catch (EntityNotFoundException ex) {
+                    // not deleted anyway
+                }
+            }
+        }
+        
+        int ret = 0;
+        List<Long> idList = new ArrayList<>(ids);
+        for (int i = 0; i < idList.size(); i += getMaxInClauseSize()) {
+            List<Long> chunk = idList.subList(i, Math.min(i + getMaxInClauseSize(), idList.size()));
+            CriteriaDelete<T> delete = em.getCriteriaBuilder().createCriteriaDelete(getModelClass());
+            Root<T> root = delete.from(getModelClass());
+            delete.where(getIdPath(root).in(chunk));
+            ret += em.createQuery(delete).executeUpdate();
+        }
+        invalidateCachedCount();
+        
+        if (evict) {
+            Cache cache = em.getEntityManagerFactory().getCache();
+            for (Long id : ids) {
+                cache.evict(getModelClass(), id);
+            }
+        }
+        return ret;
+    }
+    
+    /**
+     * Returns the maximum number of ids bound to a single SQL <code>IN</code> clause by bulk operations. Defaults to 1000
+     * which is the lowest limit of commonly used databases.
+     */
+    protected int getMaxInClauseSize() {
+        return 1000;
+    }
+
+    /**
+     * Returns the number of entities after which {@link #saveAll(Collection)} / {@link #deleteAll(Collection)}
+     * flush the persistence context and detach the entities of the batch. Defaults to 50.
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive, but was " + batchSize);
+        }
+        this.batchSize = batchSize;
     }
 }
@@ -13,15 +13,36 @@
 package ch.codebulb.crudfaces.service;
 
 import ch.codebulb.crudfaces.model.CrudIdentifiable;
+import ch.codebulb.crudfaces.model.CrudVersioned;
+import ch.codebulb.crudfaces.util.ComparatorsHelper;
+import ch.codebulb.crudfaces.util.PropertiesHelper;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.persistence.EntityGraph;
+import javax.persistence.OptimisticLockException;
 
 /**
  * <p>
  * A mocked {@link CrudService} implementation which stores entities in a
- * {@link HashMap} rather than persisting them in an actual persistence
+ * {@link ConcurrentSkipListMap} rather than persisting them in an actual persistence
  * storage.</p>
  *
  * <p>
@@ -31,44 +52,339 @@ import java.util.Map;
  * <code>CrudServiceMocked</code> implementation as e.g. a
  * <code>@SessionScoped</code> bean, and later change to a true
  * {@link CrudService} without any interface changes.</p>
+ * 
+ * <p>
+ * This implementation is thread-safe and supports the same filtered, sorted and paged queries as
+ * {@link CrudService}, with the same filter semantics (see {@link EntityFilter}).
+ * Hence, it can also be used e.g. as an <code>@ApplicationScoped</code> bean to load test controllers and views
+ * without a database.</p>
+ * <p>
+ * Like a database, it stores and returns (serialized) copies of the entities, hence entities returned are never
+ * modified by other callers, and concurrent modifications of {@link CrudVersioned} entities are detected.</p>
+ * <p>
+ * Note that a <code>@SessionScoped</code> bean can't be invoked from a background thread, e.g. by
+ * {@link ch.codebulb.crudfaces.controller.SimpleCrudController#initEntitiesAsync()}; use an
+ * <code>@ApplicationScoped</code> bean then.</p>
  *
  * @author Nicolas Hofstetter (codebulb.ch)
  * @since 0.1
  */
 public abstract class CrudServiceMocked<T extends CrudIdentifiable> extends CrudService<T> {  
-    private final Map<Long, T> ENTITIES = new HashMap<>();
-    private Long currentId = 0L;
+    private final ConcurrentNavigableMap<Long, T> ENTITIES = new ConcurrentSkipListMap<>();
+    private final AtomicLong currentId = new AtomicLong();
     
     @Override
     public T findById(Long id) {
-        return ENTITIES.get(id);
+        T ret = ENTITIES.get(id);
+        return ret != null ? copy(ret) : null;
     }
     
     @Override
     public List<T> findAll() {
-        return new ArrayList<>(ENTITIES.values());
+        return copyAll(ENTITIES.values());
+    }
+
+    @Override
+    public List<T> findByIds(Collection<Long> ids) {
+        List<T> ret = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            T entity = ENTITIES.get(id);
+            if (entity != null) {
+                ret.add(copy(entity));
+            }
+        }
+        return ret;
+    }
+    
+    @Override
+    public List<T> find(int first, int max, Sort sort, Map<String, Object> filters) {
+        return find(first, max, sort, filters, null, Collections.<Long>emptyList());
+    }
+    
+    @Override
+    public List<T> find(int first, int max, Sort sort, Map<String, Object> filters, EntityGraph<?> graph, Collection<Long> excludedIds) {
+        List<T> ret = findMatching(sort, filters);
+        removeExcluded(ret, excludedIds);
+        int from = Math.min(first, ret.size());
+        int to = max < 0 ? ret.size() : (int) Math.min((long) from + max, ret.size());
+        return copyAll(ret.subList(from, to));
+    }
+    
+    /**
+     * Returns <code>null</code>: Entity graphs are not supported and will be ignored.
+     */
+    @Override
+    public EntityGraph<T> createEntityGraph(String... attributes) {
+        return null;
+    }
+    
+    /**
+     * Returns <code>null</code>: Entity graphs are not supported and will be ignored.
+     */
+    @Override
+    public EntityGraph<?> getEntityGraph(String name) {
+        return null;
+    }
+    
+    @Override
+    public List<T> find(int first, int max, Sort sort, Map<String, Object> filters, EntityGraph<?> graph) {
+        return find(first, max, sort, filters);
+    }
+    
+    @Override
+    public T findById(Long id, EntityGraph<?> graph) {
+        return findById(id);
+    }
+    
+    @Override
+    public <P> List<P> findProjected(Class<P> projectionType, List<String> properties, int first, int max, Sort sort, Map<String, Object> filters) {
+        Constructor<?> constructor = null;
+        for (Constructor<?> candidate : projectionType.getConstructors()) {
+            if (candidate.getParameterTypes().length == properties.size()) {
+                constructor = candidate;
+            }
+        }
+        if (constructor == null) {
+            throw new IllegalArgumentException("No constructor with " + properties.size() + " parameters found in " + projectionType);
+        }
+        
+        List<P> ret = new ArrayList<>();
+        for (T entity : find(first, max, sort, filters)) {
+            Object[] values = new Object[properties.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = PropertiesHelper.getProperty(entity, properties.get(i));
+            }
+            try {
+                ret.add(projectionType.cast(constructor.newInstance(values)));
+            } catch (InstantiationException | IllegalAccessException | InvocationTargetException ex) {
+                throw new IllegalStateException("Cannot instantiate projection " + projectionType, ex);
+            }
+        }
+        return ret;
+    }
+    
+    /**
+     * Without a sort, seeks in the entities, which are stored in id order, and stops after <code>limit</code> matches.
+     */
+    @Override
+    public List<T> findAfter(Long lastId, int limit, Sort sort, Map<String, Object> filters) {
+        if (sort == null || sort.isEmpty()) {
+            return copyAll(findInIdOrder(lastId == null ? ENTITIES : ENTITIES.tailMap(lastId, false), limit, filters));
+        }
+        List<T> ret = findMatching(sort, filters);
+        int from = 0;
+        if (lastId != null) {
+            from = -1;
+            for (int i = 0; i < ret.size(); i++) {
+                if (lastId.equals(ret.get(i).getId())) {
+                    from = i + 1;
+                    break;
+                }
+            }
+            if (from < 0) {
+                throw new IllegalArgumentException("Cannot seek after entity with id " + lastId + ": entity not found");
+            }
+        }
+        return copyAll(ret.subList(from, (int) Math.min((long) from + limit, ret.size())));
+    }
+    
+    /**
+     * Without a sort, seeks in the entities, which are stored in id order, and stops after <code>limit</code> matches.
+     */
+    @Override
+    public List<T> findBefore(Long firstId, int limit, Sort sort, Map<String, Object> filters) {
+        if (sort == null || sort.isEmpty()) {
+            List<T> ret = copyAll(findInIdOrder(ENTITIES.headMap(firstId, false).descendingMap(), limit, filters));
+            Collections.reverse(ret);
+            return ret;
+        }
+        List<T> ret = findMatching(sort, filters);
+        for (int i = 0; i < ret.size(); i++) {
+            if (firstId.equals(ret.get(i).getId())) {
+                return copyAll(ret.subList(Math.max(0, i - limit), i));
+            }
+        }
+        throw new IllegalArgumentException("Cannot seek before entity with id " + firstId + ": entity not found");
+    }
+    
+    @Override
+    public Iterable<T> iterate(Sort sort, Map<String, Object> filters, int pageSize) {
+        return copyAll(findMatching(sort, filters));
     }
     
     @Override
-    public long countAll() {
+    public Iterable<T> stream(Map<String, Object> filters, int fetchSize) {
+        return copyAll(findMatching(null, filters));
+    }
+    
+    @Override
+    protected long countAllExact() {
         return ENTITIES.size();
     }
     
     @Override
-    public T save(T entity) {        
+    public long count(Map<String, Object> filters) {
+        if (filters == null || filters.isEmpty()) {
+            return countAll();
+        }
+        return findMatching(null, filters).size();
+    }
+    
+    @Override
+    public long count(Map<String, Object> filters, Collection<Long> excludedIds) {
+        if (excludedIds.isEmpty()) {
+            return count(filters);
+        }
+        List<T> ret = findMatching(null, filters);
+        removeExcluded(ret, excludedIds);
+        return ret.size();
+    }
+    
+    private static <T extends CrudIdentifiable> void removeExcluded(List<T> entities, Collection<Long> excludedIds) {
+        if (excludedIds.isEmpty()) {
+            return;
+        }
+        Set<Long> excluded = new HashSet<>(excludedIds);
+        for (Iterator<T> it = entities.iterator(); it.hasNext();) {
+            if (excluded.contains(it.next().getId())) {
+                it.remove();
+            }
+        }
+    }
+    
+    /**
+     * Returns the first entities of the entities provided which match the filters provided, at most
+     * <code>limit</code> entities.
+     */
+    private List<T> findInIdOrder(Map<Long, T> entities, int limit, Map<String, Object> filters) {
+        EntityFilter<T> filter = EntityFilter.compile(getModelClass(), filters);
+        List<T> ret = new ArrayList<>(Math.min(limit, 64));
+        for (Iterator<T> it = entities.values().iterator(); it.hasNext() && ret.size() < limit;) {
+            T entity = it.next();
+            if (filter.matches(entity)) {
+                ret.add(entity);
+            }
+        }
+        return ret;
+    }
+    
+    /**
+     * Returns a copy of the entity provided, such that entities stored are never shared with callers, just like
+     * entities loaded from a database.
+     */
+    private T copy(T entity) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeObject(entity);
+            }
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+                return (T) in.readObject();
+            }
+        } catch (IOException | ClassNotFoundException ex) {
+            throw new IllegalStateException("Cannot copy entity " + entity, ex);
+        }
+    }
+    
+    private List<T> copyAll(Collection<T> entities) {
+        List<T> ret = new ArrayList<>(entities.size());
+        for (T entity : entities) {
+            ret.add(copy(entity));
+        }
+        return ret;
+    }
+    
+    /**
+     * Returns a snapshot of all entities matching the filters provided, sorted by the sort provided and by id.
+     */
+    private List<T> findMatching(Sort sort, Map<String, Object> filters) {
+        List<T> ret = EntityFilter.compile(getModelClass(), filters).filter(new ArrayList<>(ENTITIES.values()));
+        if (sort != null && !sort.isEmpty()) {
+            // stable sort: entities remain sorted by id last
+            Collections.sort(ret, ComparatorsHelper.getComparator(getModelClass(), sort));
+        }
+        return ret;
+    }
+    
+    /**
+     * Increments the version of {@link CrudVersioned} entities like a JPA <code>&#064;Version</code> attribute, and
+     * throws an {@link OptimisticLockException} if a {@link CrudVersioned} entity has been modified or deleted concurrently.
+     */
+    @Override
+    public synchronized T save(T entity) {
         // CREATE
         if (entity.getId() == null) {
-            currentId = ++currentId;
-            entity.setId(currentId);
+            entity.setId(currentId.incrementAndGet());
+            if (entity instanceof CrudVersioned) {
+                ((CrudVersioned) entity).setVersion(0L);
+            }
+        }
+        else if (entity instanceof CrudVersioned) {
+            CrudVersioned versioned = (CrudVersioned) entity;
+            T stored = ENTITIES.get(entity.getId());
+            if (stored == null ? versioned.getVersion() != null
+                    : !Objects.equals(((CrudVersioned) stored).getVersion(), versioned.getVersion())) {
+                throw new OptimisticLockException("Entity has been modified or deleted concurrently", null, entity);
+            }
+            versioned.setVersion(versioned.getVersion() == null ? 0 : versioned.getVersion() + 1);
         }
         // UPDATE
-        ENTITIES.put(entity.getId(), entity);
+        ENTITIES.put(entity.getId(), copy(entity));
+        invalidateCachedCount();
         
         return entity;
     }
     
     @Override
-    public void delete(Long id) {
+    public List<T> saveAll(Collection<T> entities) {
+        List<T> ret = new ArrayList<>(entities.size());
+        for (T entity : entities) {
+            ret.add(save(entity));
+        }
+        return ret;
+    }
+    
+    /**
+     * Saves each entity with {@link #save(CrudIdentifiable)}, reporting entities rejected with an
+     * {@link OptimisticLockException} as conflicts.
+     */
+    @Override
+    public BatchSaveResult<T> saveAllChecked(Collection<T> entities) {
+        Set<Long> conflictedIds = new LinkedHashSet<>();
+        List<T> saved = new ArrayList<>(entities.size());
+        for (T entity : entities) {
+            try {
+                saved.add(save(entity));
+            }
+            catch (OptimisticLockException ex) {
+                conflictedIds.add(entity.getId());
+            }
+        }
+        return new BatchSaveResult<>(saved, conflictedIds);
+    }
+    
+    @Override
+    public synchronized void delete(Long id) {
         ENTITIES.remove(id);
+        invalidateCachedCount();
+    }
+    
+    @Override
+    public void deleteAll(Collection<Long> ids) {
+        for (Long id : ids) {
+            delete(id);
+        }
+    }
+    
+    @Override
+    public synchronized int deleteByIds(Collection<Long> ids, boolean evict) {
+        int ret = 0;
+        for (Long id : ids) {
+            if (ENTITIES.remove(id) != null) {
+                ret++;
+            }
+        }
+        invalidateCachedCount();
+        return ret;
     }
 }
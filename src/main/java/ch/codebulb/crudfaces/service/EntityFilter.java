@@ -0,0 +1,260 @@
+/*
+ * Copyright 2015 CrudFaces / Nicolas Hofstetter (codebulb.ch).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package ch.codebulb.crudfaces.service;
+
+import ch.codebulb.crudfaces.util.PropertiesHelper;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * <p>
+ * A set of filter values, compiled into typed conditions once, which is then applied to any number of entities in
+ * memory. {@link CrudService} applies the same filter semantics on the database.</p>
+ * <p>
+ * Every filter entry maps a (possibly nested, dot-separated) property name to a filter value. Filter values are first
+ * normalized with respect to the property type (see {@link #normalize(Class, Object)}), then matched like this:</p>
+ * <ul>
+ * <li>Collections match any of their elements.</li>
+ * <li>Date arrays <code>{from, to}</code> on Date properties match the inclusive range; either bound may be <code>null</code>.</li>
+ * <li>Strings on String properties match case-insensitively by prefix, as PrimeFaces' default "startsWith" filter mode does.</li>
+ * <li>Strings on other properties which can't be converted to the property type match the property's String representation.</li>
+ * <li>Booleans on Boolean properties match the same value or <code>null</code>.</li>
+ * <li>Any other value matches by equality.</li>
+ * </ul>
+ *
+ * @author Nicolas Hofstetter (codebulb.ch)
+ * @since 0.2
+ */
+public class EntityFilter<T> {
+    private final List<Condition> conditions;
+
+    private EntityFilter(List<Condition> conditions) {
+        this.conditions = conditions;
+    }
+
+    /**
+     * Compiles the filter values provided for entities of the type provided.
+     *
+     * @param filterValues the filter values by property name; may be <code>null</code>
+     * @throws IllegalArgumentException if a filtered property does not exist
+     */
+    public static <T> EntityFilter<T> compile(Class<T> type, Map<String, Object> filterValues) {
+        List<Condition> conditions = new ArrayList<>();
+        if (filterValues != null) {
+            for (Map.Entry<String, Object> filterValue : filterValues.entrySet()) {
+                Class<?> propertyType = PropertiesHelper.getPropertyType(type, filterValue.getKey());
+                Object value = normalize(propertyType, filterValue.getValue());
+                if (value != null) {
+                    conditions.add(new Condition(filterValue.getKey(), propertyType, value));
+                }
+            }
+        }
+        return new EntityFilter<>(conditions);
+    }
+
+    /**
+     * Converts the filter value provided to the type of the property filtered, as submitted by common filter
+     * components, and returns <code>null</code> if it doesn't filter anything:
+     * <ul>
+     * <li><code>null</code> values, empty Strings and empty Collections don't filter.</li>
+     * <li>Strings on Boolean properties are tri-state codes (see {@link #parseTriState(Object)}).</li>
+     * <li>Strings on Enum properties, also as elements of a Collection, are enum constant names.</li>
+     * <li>Strings on numeric and Character properties, also as elements of a Collection, are converted to the property
+     * type, if possible.</li>
+     * <li>Date arrays without any bound don't filter.</li>
+     * </ul>
+     */
+    public static Object normalize(Class<?> propertyType, Object value) {
+        if (value == null || (value instanceof String && ((String) value).isEmpty())) {
+            return null;
+        }
+        if (value instanceof Collection) {
+            if (((Collection<?>) value).isEmpty()) {
+                return null;
+            }
+            List<Object> ret = new ArrayList<>();
+            for (Object element : (Collection<?>) value) {
+                ret.add(propertyType.isEnum() ? toEnum(propertyType, element) : convert(propertyType, element));
+            }
+            return ret;
+        }
+        if (value instanceof String && (propertyType == Boolean.class || propertyType == boolean.class)) {
+            return parseTriState(value);
+        }
+        if (propertyType.isEnum()) {
+            return toEnum(propertyType, value);
+        }
+        if (value instanceof String) {
+            return convert(propertyType, value);
+        }
+        if (value instanceof Date[]) {
+            Date[] range = (Date[]) value;
+            if (range.length != 2) {
+                throw new IllegalArgumentException("Date range must consist of 2 bounds, but had " + range.length);
+            }
+            return range[0] == null && range[1] == null ? null : range;
+        }
+        return value;
+    }
+
+    /**
+     * Parses a tri-state filter value as submitted by <code>&lt;pe:triStateCheckbox&gt;</code>: <code>"0"</code>
+     * (unchecked) is parsed to <code>false</code>, <code>"1"</code> (checked) to <code>true</code>, and any other
+     * value (<code>"2"</code>: neither checked nor unchecked) to <code>null</code>.
+     */
+    public static Boolean parseTriState(Object value) {
+        if ("1".equals(value)) {
+            return Boolean.TRUE;
+        }
+        if ("0".equals(value)) {
+            return Boolean.FALSE;
+        }
+        return null;
+    }
+
+    private static Object toEnum(Class<?> enumType, Object value) {
+        if (!(value instanceof String)) {
+            return value;
+        }
+        for (Object constant : enumType.getEnumConstants()) {
+            if (((Enum<?>) constant).name().equals(value)) {
+                return constant;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Converts a String to the numeric or Character type provided; returns any other value, or a String which can't be
+     * converted, as it is.
+     */
+    private static Object convert(Class<?> type, Object value) {
+        if (!(value instanceof String)) {
+            return value;
+        }
+        String string = ((String) value).trim();
+        try {
+            if (type == Integer.class || type == int.class) {
+                return Integer.valueOf(string);
+            }
+            if (type == Long.class || type == long.class) {
+                return Long.valueOf(string);
+            }
+            if (type == Short.class || type == short.class) {
+                return Short.valueOf(string);
+            }
+            if (type == Byte.class || type == byte.class) {
+                return Byte.valueOf(string);
+            }
+            if (type == Double.class || type == double.class) {
+                return Double.valueOf(string);
+            }
+            if (type == Float.class || type == float.class) {
+                return Float.valueOf(string);
+            }
+            if (type == BigDecimal.class) {
+                return new BigDecimal(string);
+            }
+            if (type == BigInteger.class) {
+                return new BigInteger(string);
+            }
+        }
+        catch (NumberFormatException ex) {
+            return value;
+        }
+        if ((type == Character.class || type == char.class) && ((String) value).length() == 1) {
+            return ((String) value).charAt(0);
+        }
+        return value;
+    }
+
+    /**
+     * Returns <code>true</code> if no filter value filters anything, i.e. if every entity matches.
+     */
+    public boolean isEmpty() {
+        return conditions.isEmpty();
+    }
+
+    /**
+     * Returns <code>true</code> if the entity provided matches all filter values.
+     */
+    public boolean matches(T entity) {
+        for (Condition condition : conditions) {
+            if (!condition.matches(entity)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the entities provided which match all filter values, in their original order, in a single pass.
+     */
+    public List<T> filter(List<T> entities) {
+        if (isEmpty()) {
+            return new ArrayList<>(entities);
+        }
+        List<T> ret = new ArrayList<>();
+        for (T entity : entities) {
+            if (matches(entity)) {
+                ret.add(entity);
+            }
+        }
+        return ret;
+    }
+
+    private static class Condition {
+        private final String property;
+        private final Object value;
+        private final String prefix;
+        private final boolean triState;
+        private final boolean stringRepresentation;
+
+        public Condition(String property, Class<?> propertyType, Object value) {
+            this.property = property;
+            this.value = value;
+            this.prefix = value instanceof String && propertyType == String.class ? ((String) value).toLowerCase(Locale.ROOT) : null;
+            this.triState = value instanceof Boolean;
+            this.stringRepresentation = value instanceof String && propertyType != String.class;
+        }
+
+        public boolean matches(Object entity) {
+            Object actual = PropertiesHelper.getProperty(entity, property);
+            if (prefix != null) {
+                return actual != null && ((String) actual).toLowerCase(Locale.ROOT).startsWith(prefix);
+            }
+            if (stringRepresentation) {
+                return actual != null && String.valueOf(actual).equals(value);
+            }
+            if (triState) {
+                return actual == null || value.equals(actual);
+            }
+            if (value instanceof Collection) {
+                return ((Collection<?>) value).contains(actual);
+            }
+            if (value instanceof Date[]) {
+                Date[] range = (Date[]) value;
+                return actual != null && (range[0] == null || !((Date) actual).before(range[0]))
+                        && (range[1] == null || !((Date) actual).after(range[1]));
+            }
+            return Objects.equals(value, actual);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2015 CrudFaces / Nicolas Hofstetter (codebulb.ch).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package ch.codebulb.crudfaces.service;
+
+import ch.codebulb.crudfaces.util.StringsHelper;
+import java.util.List;
+import javax.persistence.EntityManager;
+import javax.persistence.Table;
+
+/**
+ * A {@link CountEstimator} which reads the row count estimate PostgreSQL maintains in its
+ * <code>pg_class.reltuples</code> statistics (updated by <code>VACUUM</code> / <code>ANALYZE</code>).<p/>
+ *
+ * The table name is taken from the entity's <code>&#064;Table</code> annotation, or else from the entity class name.
+ * Requires PostgreSQL 9.4 or newer.
+ *
+ * @author Nicolas Hofstetter (codebulb.ch)
+ * @since 0.2
+ */
+public class PostgreSqlCountEstimator implements CountEstimator {
+
+    @Override
+    public long estimateCount(EntityManager em, Class<?> entityType) {
+        List<?> result = em.createNativeQuery("SELECT CAST(reltuples AS BIGINT) FROM pg_class WHERE oid = to_regclass(?1)")
+                .setParameter(1, getTableName(entityType))
+                .getResultList();
+        if (result.isEmpty() || result.get(0) == null) {
+            return -1;
+        }
+        return ((Number) result.get(0)).longValue();
+    }
+
+    /**
+     * Returns the (possibly schema-qualified) table name of the entity type provided.
+     */
+    protected String getTableName(Class<?> entityType) {
+        Table table = entityType.getAnnotation(Table.class);
+        if (table == null || StringsHelper.isEmpty(table.name())) {
+            return entityType.getSimpleName();
+        }
+        if (StringsHelper.isEmpty(table.schema())) {
+            return table.name();
+        }
+        return table.schema() + "." + table.name();
+    }
+}
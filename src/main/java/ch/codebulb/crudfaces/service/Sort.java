@@ -0,0 +1,151 @@
+/*
+ * Copyright 2015 CrudFaces / Nicolas Hofstetter (codebulb.ch).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package ch.codebulb.crudfaces.service;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A simple, immutable sort order builder for {@link CrudService} queries, supporting multiple sort fields.<p/>
+ *
+ * Use it like this:<p/>
+<pre class="brush:java">
+List&lt;Customer&gt; customers = service.find(0, 20, Sort.asc("lastName").thenAsc("firstName"), filters);
+</pre>
+ * 
+ * Every <code>then*</code> method returns a new Sort and leaves the Sort it is invoked on unchanged, hence
+ * Sorts can safely be shared and used as keys of hash-based collections.
+ *
+ * @author Nicolas Hofstetter (codebulb.ch)
+ * @since 0.2
+ */
+public class Sort implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final List<Field> fields;
+
+    private Sort(List<Field> fields) {
+        this.fields = Collections.unmodifiableList(fields);
+    }
+
+    /**
+     * Builds a new Sort which sorts by the property provided in ascending order.
+     */
+    public static Sort asc(String property) {
+        return new Sort(Collections.singletonList(new Field(property, true)));
+    }
+
+    /**
+     * Builds a new Sort which sorts by the property provided in descending order.
+     */
+    public static Sort desc(String property) {
+        return new Sort(Collections.singletonList(new Field(property, false)));
+    }
+
+    /**
+     * Returns a new Sort which additionally sorts by the property provided in ascending order.
+     */
+    public Sort thenAsc(String property) {
+        return then(new Field(property, true));
+    }
+
+    /**
+     * Returns a new Sort which additionally sorts by the property provided in descending order.
+     */
+    public Sort thenDesc(String property) {
+        return then(new Field(property, false));
+    }
+
+    private Sort then(Field field) {
+        List<Field> ret = new ArrayList<>(fields.size() + 1);
+        ret.addAll(fields);
+        ret.add(field);
+        return new Sort(ret);
+    }
+
+    /**
+     * Returns the (unmodifiable) sort fields, in order.
+     */
+    public List<Field> getFields() {
+        return fields;
+    }
+
+    public boolean isEmpty() {
+        return fields.isEmpty();
+    }
+
+    @Override
+    public int hashCode() {
+        return fields.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (!(object instanceof Sort)) {
+            return false;
+        }
+        return fields.equals(((Sort) object).fields);
+    }
+
+    @Override
+    public String toString() {
+        return fields.toString();
+    }
+
+    /**
+     * A single sort field: a (possibly nested, dot-separated) property name and its direction.
+     */
+    public static class Field implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String property;
+        private final boolean ascending;
+
+        public Field(String property, boolean ascending) {
+            if (property == null) {
+                throw new NullPointerException("Sort property must not be null");
+            }
+            this.property = property;
+            this.ascending = ascending;
+        }
+
+        public String getProperty() {
+            return property;
+        }
+
+        public boolean isAscending() {
+            return ascending;
+        }
+
+        @Override
+        public int hashCode() {
+            return property.hashCode() * 31 + (ascending ? 1 : 0);
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (!(object instanceof Field)) {
+                return false;
+            }
+            Field other = (Field) object;
+            return property.equals(other.property) && ascending == other.ascending;
+        }
+
+        @Override
+        public String toString() {
+            return property + (ascending ? " ASC" : " DESC");
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2015 CrudFaces / Nicolas Hofstetter (codebulb.ch).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package ch.codebulb.crudfaces.util;
+
+import ch.codebulb.crudfaces.service.Sort;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A registry of comparators which compare JavaBeans by a (possibly nested, dot-separated) property, in its natural
+ * order with <code>null</code> values first. Comparators are built once per class and property from the getters'
+ * method handles, hence comparing doesn't involve reflection.
+ *
+ * @author Nicolas Hofstetter (codebulb.ch)
+ * @since 0.2
+ */
+public class ComparatorsHelper {
+    private static final ConcurrentMap<Class<?>, ConcurrentMap<String, Comparator<?>>> COMPARATORS = new ConcurrentHashMap<>();
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    private ComparatorsHelper() {
+    }
+
+    /**
+     * Returns the comparator of the (possibly nested, dot-separated) property of the class provided.
+     *
+     * @throws IllegalArgumentException if there is no such readable property, or if its type is not {@link Comparable}
+     */
+    public static <T> Comparator<T> getComparator(Class<T> type, String property) {
+        ConcurrentMap<String, Comparator<?>> comparators = COMPARATORS.get(type);
+        if (comparators == null) {
+            COMPARATORS.putIfAbsent(type, new ConcurrentHashMap<String, Comparator<?>>());
+            comparators = COMPARATORS.get(type);
+        }
+        Comparator<T> ret = (Comparator<T>) comparators.get(property);
+        if (ret == null) {
+            ret = new PropertyComparator<>(type, property);
+            comparators.putIfAbsent(property, ret);
+        }
+        return ret;
+    }
+
+    /**
+     * Returns a comparator of the class provided which compares by all fields of the sort provided, in order.
+     *
+     * @throws IllegalArgumentException if a sort property doesn't exist or is not {@link Comparable}
+     */
+    public static <T> Comparator<T> getComparator(Class<T> type, Sort sort) {
+        List<Sort.Field> fields = sort.getFields();
+        Comparator<T>[] comparators = new Comparator[fields.size()];
+        boolean[] ascending = new boolean[fields.size()];
+        for (int i = 0; i < comparators.length; i++) {
+            comparators[i] = getComparator(type, fields.get(i).getProperty());
+            ascending[i] = fields.get(i).isAscending();
+        }
+        return new SortComparator<>(comparators, ascending);
+    }
+
+    private static class PropertyComparator<T> implements Comparator<T> {
+        private final String property;
+        private final MethodHandle[] getters;
+
+        public PropertyComparator(Class<T> type, String property) {
+            this.property = property;
+            String[] parts = property.split("\\.");
+            this.getters = new MethodHandle[parts.length];
+            Class<?> propertyType = type;
+            for (int i = 0; i < parts.length; i++) {
+                Method getter = PropertiesHelper.getGetter(propertyType, parts[i]);
+                if (getter == null) {
+                    throw new IllegalArgumentException("No readable property " + parts[i] + " in " + propertyType);
+                }
+                try {
+                    getters[i] = MethodHandles.lookup().unreflect(getter).asType(GETTER_TYPE);
+                } catch (IllegalAccessException ex) {
+                    throw new IllegalStateException("Cannot access property " + parts[i] + " of " + propertyType, ex);
+                }
+                propertyType = getter.getReturnType();
+            }
+            if (!propertyType.isPrimitive() && !Comparable.class.isAssignableFrom(propertyType)) {
+                throw new IllegalArgumentException("Property " + property + " of " + type + " is not Comparable");
+            }
+        }
+
+        @Override
+        public int compare(T o1, T o2) {
+            Comparable v1 = (Comparable) getValue(o1);
+            Comparable v2 = (Comparable) getValue(o2);
+            if (v1 == null || v2 == null) {
+                // nulls first
+                return v1 == v2 ? 0 : (v1 == null ? -1 : 1);
+            }
+            return v1.compareTo(v2);
+        }
+
+        private Object getValue(Object bean) {
+            Object ret = bean;
+            for (MethodHandle getter : getters) {
+                if (ret == null) {
+                    return null;
+                }
+                try {
+                    ret = getter.invokeExact(ret);
+                } catch (RuntimeException | Error ex) {
+                    throw ex;
+                } catch (Throwable ex) {
+                    throw new IllegalStateException("Cannot read property " + property + " of " + bean, ex);
+                }
+            }
+            return ret;
+        }
+    }
+
+    private static class SortComparator<T> implements Comparator<T> {
+        private final Comparator<T>[] comparators;
+        private final boolean[] ascending;
+
+        public SortComparator(Comparator<T>[] comparators, boolean[] ascending) {
+            this.comparators = comparators;
+            this.ascending = ascending;
+        }
+
+        @Override
+        public int compare(T o1, T o2) {
+            for (int i = 0; i < comparators.length; i++) {
+                int ret = comparators[i].compare(o1, o2);
+                if (ret != 0) {
+                    return ascending[i] ? ret : -ret;
+                }
+            }
+            return 0;
+        }
+    }
+}
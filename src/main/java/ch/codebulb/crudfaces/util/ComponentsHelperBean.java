@@ -12,6 +12,7 @@
  */
 package ch.codebulb.crudfaces.util;
 
+import ch.codebulb.crudfaces.service.EntityFilter;
 import java.util.Locale;
 
 /**
@@ -45,24 +46,12 @@ public class ComponentsHelperBean {
      * <code>0</code> (unchecked), <code>1</code> (checked), or <code>2</code> (neither checked nor unchecked)
      * @param locale the locale
      * @return <code>true</code>, if the row with the value provided should be shown
+     * @see ch.codebulb.crudfaces.controller.CrudTableController#applyFilterValues() for a filter which is evaluated once for all rows
      */
     public boolean filterBoolean(Object value, Object filter, Locale locale) {
-        Boolean actual = (Boolean) value;
-        
-        if (actual == null) {
+        if (value == null || "2".equals(filter)) {
             return true;
         }
-        else if (actual == true) {
-            if ("1".equals(filter) || "2".equals(filter)) {
-                return true;
-            }
-        }
-        else if (actual == false) {
-            if ("0".equals(filter) || "2".equals(filter)) {
-                return true;
-            }
-        }
-        
-        return false;
+        return value.equals(EntityFilter.parseTriState(filter));
     }
 }
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2015 CrudFaces / Nicolas Hofstetter (codebulb.ch).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package ch.codebulb.crudfaces.util;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A collection of helper utility methods for reading JavaBeans properties, with the introspection results
+ * cached per class.
+ *
+ * @author Nicolas Hofstetter (codebulb.ch)
+ * @since 0.2
+ */
+public class PropertiesHelper {
+    private static final ConcurrentMap<Class<?>, Map<String, Method>> GETTERS = new ConcurrentHashMap<>();
+
+    private PropertiesHelper() {
+    }
+
+    /**
+     * Returns the names of all readable properties of the class provided (except <code>class</code>), in alphabetical order.
+     */
+    public static List<String> getPropertyNames(Class<?> type) {
+        return new ArrayList<>(getGetters(type).keySet());
+    }
+
+    /**
+     * Returns the getter of the property provided, or <code>null</code> if there is no such readable property.
+     */
+    public static Method getGetter(Class<?> type, String property) {
+        return getGetters(type).get(property);
+    }
+
+    /**
+     * Returns the type of the (possibly nested, dot-separated) property provided.
+     *
+     * @throws IllegalArgumentException if there is no such readable property
+     */
+    public static Class<?> getPropertyType(Class<?> type, String property) {
+        Class<?> ret = type;
+        for (String part : property.split("\\.")) {
+            ret = getExistingGetter(ret, part).getReturnType();
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the value of the (possibly nested, dot-separated) property provided, or <code>null</code> if any
+     * intermediate value is <code>null</code>.
+     *
+     * @throws IllegalArgumentException if there is no such readable property
+     */
+    public static Object getProperty(Object bean, String property) {
+        Object ret = bean;
+        for (String part : property.split("\\.")) {
+            if (ret == null) {
+                return null;
+            }
+            Method getter = getExistingGetter(ret.getClass(), part);
+            try {
+                ret = getter.invoke(ret);
+            } catch (IllegalAccessException | InvocationTargetException ex) {
+                throw new IllegalStateException("Cannot read property " + part + " of " + ret, ex);
+            }
+        }
+        return ret;
+    }
+
+    private static Method getExistingGetter(Class<?> type, String property) {
+        Method ret = getGetter(type, property);
+        if (ret == null) {
+            throw new IllegalArgumentException("No readable property " + property + " in " + type);
+        }
+        return ret;
+    }
+
+    private static Map<String, Method> getGetters(Class<?> type) {
+        Map<String, Method> ret = GETTERS.get(type);
+        if (ret == null) {
+            ret = new LinkedHashMap<>();
+            try {
+                for (PropertyDescriptor descriptor : Introspector.getBeanInfo(type, Object.class).getPropertyDescriptors()) {
+                    if (descriptor.getReadMethod() != null) {
+                        descriptor.getReadMethod().setAccessible(true);
+                        ret.put(descriptor.getName(), descriptor.getReadMethod());
+                    }
+                }
+            } catch (IntrospectionException ex) {
+                throw new IllegalStateException("Cannot introspect " + type, ex);
+            }
+            ret = Collections.unmodifiableMap(ret);
+            GETTERS.putIfAbsent(type, ret);
+        }
+        return ret;
+    }
+}
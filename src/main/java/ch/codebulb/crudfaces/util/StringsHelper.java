@@ -51,6 +51,20 @@ public class StringsHelper {
         return ret.toString();
     }
     
+    /**
+     * Escapes the value provided as a CSV field: If it contains a separator (comma or semicolon), a double quote or a
+     * line break, it is put in double quotes and double quotes within are doubled.
+     */
+    public static String escapeCsv(String input) {
+        if (input == null) {
+            return "";
+        }
+        if (input.indexOf(',') < 0 && input.indexOf(';') < 0 && input.indexOf('"') < 0 && input.indexOf('\n') < 0 && input.indexOf('\r') < 0) {
+            return input;
+        }
+        return '"' + input.replace("\"", "\"\"") + '"';
+    }
+    
     /**
      * Builds a new String {@link Joiner} which can be used to join Strings in an easy-to-read manner.
      */
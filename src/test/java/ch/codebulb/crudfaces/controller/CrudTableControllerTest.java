@@ -0,0 +1,440 @@
+/*
+ * Copyright 2015 CrudFaces / Nicolas Hofstetter (codebulb.ch).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package ch.codebulb.crudfaces.controller;
+
+import ch.codebulb.crudfaces.model.CrudEntity;
+import ch.codebulb.crudfaces.service.CrudService;
+import ch.codebulb.crudfaces.service.BatchSaveResult;
+import ch.codebulb.crudfaces.service.CrudServiceMocked;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.Before;
+import org.junit.Test;
+import org.primefaces.model.SortOrder;
+import static org.junit.Assert.*;
+
+/**
+ * @author Nicolas Hofstetter (codebulb.ch)
+ * @since 0.2
+ */
+public class CrudTableControllerTest {
+    private static TestEntityService service;
+
+    private TestEntityController controller;
+
+    @Before
+    public void init() {
+        service = new TestEntityService();
+        service.save(entity("a"));
+        service.save(entity("b"));
+        service.save(entity("c"));
+
+        controller = new TestEntityController();
+        controller.initNewEntity();
+        controller.initEntities();
+    }
+
+    @Test
+    public void testCompactState() throws Exception {
+        controller.setCompactState(true);
+        controller.getEntities().get(0).setName("changed");
+        controller.getNewEntity().setName("new");
+        controller.addNewEntity();
+        // modified concurrently
+        TestEntity stored = service.findById(controller.getEntities().get(1).getId());
+        stored.setName("reloaded");
+        service.save(stored);
+
+        TestEntityController deserialized = serializeAndDeserialize(controller);
+
+        assertEquals(4, deserialized.getEntities().size());
+        TestEntity changed = deserialized.getEntities().get(0);
+        TestEntity unchanged = deserialized.getEntities().get(1);
+        TestEntity added = deserialized.getEntities().get(3);
+        assertEquals("changed", changed.getName());
+        assertEquals("new", added.getName());
+        // unchanged entities are reloaded from the service
+        assertEquals("reloaded", unchanged.getName());
+
+        assertTrue(deserialized.isDirty(changed));
+        assertFalse(deserialized.isDirty(unchanged));
+        assertTrue(deserialized.isDirty(added));
+        assertSame(added, deserialized.getSelectedEntity());
+        assertSame(added, deserialized.getSelectedEntities().get(0));
+    }
+
+    @Test
+    public void testFullState() throws Exception {
+        controller.getEntities().get(0).setName("changed");
+
+        TestEntityController deserialized = serializeAndDeserialize(controller);
+
+        assertEquals(3, deserialized.getEntities().size());
+        TestEntity unchanged = deserialized.getEntities().get(1);
+        assertNotSame(service.findById(unchanged.getId()), unchanged);
+        assertTrue(deserialized.isDirty(deserialized.getEntities().get(0)));
+        assertFalse(deserialized.isDirty(unchanged));
+    }
+
+    @Test
+    public void testInitEntitiesAsync() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        controller.executor = executor;
+        // fetched in several pages
+        controller.asyncPageSize = 2;
+        controller.initEntitiesAsync();
+        
+        long timeout = System.currentTimeMillis() + 5000;
+        while (controller.isLoading() && System.currentTimeMillis() < timeout) {
+            controller.pollEntities();
+            Thread.sleep(10);
+        }
+        executor.shutdown();
+        
+        assertFalse(controller.isLoading());
+        assertEquals(service.findAll(), controller.getEntities());
+        assertFalse(controller.isDirty(controller.getEntities().get(0)));
+    }
+
+    @Test
+    public void testSortBy() {
+        controller.sortBy("name");
+        assertNames("a", "b", "c");
+        controller.sortBy("name");
+        assertNames("c", "b", "a");
+        controller.sortBy("name", true);
+        assertNames("a", "b", "c");
+        
+        controller.getNewEntity().setName("0");
+        controller.addNewEntity();
+        assertNames("a", "b", "c", "0");
+        controller.sortBy("name", true);
+        assertNames("0", "a", "b", "c");
+    }
+
+    @Test
+    public void testRowUpdateTargets() {
+        TestEntity entity = controller.getEntities().get(1);
+        controller.setSelectedEntity(entity);
+        controller.saveSelectedEntity();
+        assertEquals(Arrays.asList(entity.getId()), new ArrayList<>(controller.getChangedRowIds()));
+        assertFalse(controller.isStructureChanged());
+        assertEquals(Arrays.asList("form:table:1:name", "form:table:1:premium"), controller.getRowUpdateTargets("form:table", "name", "premium"));
+        
+        controller.addNewEntity();
+        assertTrue(controller.isStructureChanged());
+        assertEquals(Arrays.asList("form:table"), controller.getRowUpdateTargets("form:table", "name"));
+    }
+
+    @Test
+    public void testNeighbourNavigation() {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        controller.executor = executor;
+        controller.setPrefetchCount(2);
+        controller.sortBy("name", false);
+        TestEntity b = controller.getEntities().get(1);
+        controller.setCurrentEntityId(b.getId());
+        controller.setCurrentEntity(b);
+        
+        assertEquals(controller.getEntities().get(2).getId(), controller.getNextId());
+        assertEquals(controller.getEntities().get(0).getId(), controller.getPreviousId());
+        
+        assertNull(controller.next());
+        assertEquals("a", controller.getCurrentEntity().getName());
+        assertNull(controller.getNextId());
+        controller.previous();
+        controller.previous();
+        assertEquals("c", controller.getCurrentEntity().getName());
+        assertNull(controller.getPreviousId());
+        executor.shutdown();
+    }
+
+    @Test
+    public void testMemoize() {
+        final int[] computations = new int[1];
+        Callable<Integer> size = new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                computations[0]++;
+                return controller.getEntities().size();
+            }
+        };
+        assertEquals(3, (int) controller.memoize("size", size));
+        assertEquals(3, (int) controller.memoize("size", size));
+        assertEquals(1, computations[0]);
+        
+        controller.addNewEntity();
+        assertEquals(4, (int) controller.memoize("size", size));
+        assertEquals(2, computations[0]);
+    }
+
+    @Test
+    public void testLazyKeepsPendingChanges() {
+        controller.setLazy(true);
+        CrudLazyDataModel<TestEntity> model = controller.getLazyEntities();
+        Map<String, Object> filters = new HashMap<>();
+        
+        model.load(0, 2, null, SortOrder.UNSORTED, filters);
+        assertEquals(3, model.getRowCount());
+        assertNames("a", "b");
+        
+        controller.removeEntity(controller.getEntities().get(0).getId());
+        controller.getNewEntity().setName("new");
+        controller.addNewEntity();
+        
+        // the removed entity is skipped, the added entity follows the persisted ones
+        model.load(0, 2, null, SortOrder.UNSORTED, filters);
+        assertEquals(3, model.getRowCount());
+        assertNames("b", "c");
+        model.load(2, 2, null, SortOrder.UNSORTED, filters);
+        assertNames("new");
+        
+        // the added entity is saved even if it isn't on the current page
+        model.load(0, 2, null, SortOrder.UNSORTED, filters);
+        controller.saveAllEntities();
+        List<String> names = new ArrayList<>();
+        for (TestEntity entity : service.findAll()) {
+            names.add(entity.getName());
+        }
+        assertEquals(Arrays.asList("b", "c", "new"), names);
+        
+        model.load(0, 5, null, SortOrder.UNSORTED, filters);
+        assertEquals(3, model.getRowCount());
+        assertNames("b", "c", "new");
+    }
+
+    @Test
+    public void testLazyKeepsModifiedEntities() {
+        controller.setLazy(true);
+        CrudLazyDataModel<TestEntity> model = controller.getLazyEntities();
+        Map<String, Object> filters = new HashMap<>();
+        
+        model.load(0, 2, null, SortOrder.UNSORTED, filters);
+        TestEntity modified = controller.getEntities().get(0);
+        modified.setName("modified");
+        
+        model.load(2, 2, null, SortOrder.UNSORTED, filters);
+        assertNames("c");
+        model.load(0, 2, null, SortOrder.UNSORTED, filters);
+        assertSame(modified, controller.getEntities().get(0));
+        assertTrue(controller.isDirty(modified));
+        assertFalse(controller.isDirty(controller.getEntities().get(1)));
+        
+        // the modified entity is saved even if it isn't on the current page
+        model.load(2, 2, null, SortOrder.UNSORTED, filters);
+        controller.saveAllEntities();
+        assertEquals("modified", service.findById(modified.getId()).getName());
+        assertTrue(controller.getModifiedEntities().isEmpty());
+    }
+
+    @Test
+    public void testLazyKeepsPendingChangesIfSavingFails() {
+        controller.setLazy(true);
+        CrudLazyDataModel<TestEntity> model = controller.getLazyEntities();
+        model.load(0, 2, null, SortOrder.UNSORTED, new HashMap<String, Object>());
+        controller.getNewEntity().setName("new");
+        controller.addNewEntity();
+        TestEntity added = controller.getAddedEntities().get(0);
+        Long temporaryId = added.getId();
+        
+        service.failing = true;
+        try {
+            controller.saveAllEntities();
+            fail();
+        }
+        catch (IllegalStateException ex) {
+            // expected
+        }
+        assertEquals(Arrays.asList(added), controller.getAddedEntities());
+        assertEquals(temporaryId, added.getId());
+        
+        service.failing = false;
+        controller.saveAllEntities();
+        assertTrue(controller.getAddedEntities().isEmpty());
+        assertEquals(4, service.countAll());
+    }
+
+    @Test
+    public void testDeleteSelected() {
+        TestEntity a = controller.getEntities().get(0);
+        TestEntity b = controller.getEntities().get(1);
+        controller.addNewEntity();
+        controller.getSelectedEntities().add(a);
+        controller.getSelectedEntities().add(b);
+        
+        controller.deleteSelected();
+        
+        // deleted one by one, the unsaved entity is removed only
+        assertEquals(Arrays.asList(a.getId(), b.getId()), service.deletedIds);
+        assertEquals(0, service.bulkDeleteCount);
+        assertNames("c");
+        assertEquals(1, service.countAll());
+        
+        TestEntity c = controller.getEntities().get(0);
+        controller.bulkDelete = true;
+        controller.getSelectedEntities().add(c);
+        controller.deleteSelected();
+        assertEquals(1, service.bulkDeleteCount);
+        assertEquals(0, service.countAll());
+    }
+
+    @Test
+    public void testWriteCsv() throws Exception {
+        service.save(entity("Smith, John"));
+        service.save(entity("\"Johnny\""));
+        service.save(entity("multi\nline"));
+        service.save(entity(null));
+        controller.exportProperties = Arrays.asList("id", "name");
+        
+        StringWriter csv = new StringWriter();
+        controller.writeCsv(csv);
+        
+        assertEquals("id,name\r\n"
+                + "1,a\r\n"
+                + "2,b\r\n"
+                + "3,c\r\n"
+                + "4,\"Smith, John\"\r\n"
+                + "5,\"\"\"Johnny\"\"\"\r\n"
+                + "6,\"multi\nline\"\r\n"
+                + "7,\r\n", csv.toString());
+    }
+
+    @Test
+    public void testDefaultExportPropertiesAreBasic() {
+        List<String> properties = controller.getExportProperties();
+        assertTrue(properties.contains("id"));
+        assertTrue(properties.contains("name"));
+        assertFalse(properties.contains("related"));
+    }
+
+    private void assertNames(String... expected) {
+        List<String> names = new ArrayList<>();
+        for (TestEntity entity : controller.getEntities()) {
+            names.add(entity.getName());
+        }
+        assertEquals(Arrays.asList(expected), names);
+    }
+
+    private static <T> T serializeAndDeserialize(T object) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return (T) in.readObject();
+        }
+    }
+
+    private static TestEntity entity(String name) {
+        TestEntity ret = new TestEntity();
+        ret.setName(name);
+        return ret;
+    }
+
+    public static class TestEntity extends CrudEntity {
+        private String name;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public List<TestEntity> getRelated() {
+            return Collections.emptyList();
+        }
+    }
+
+    private static class TestEntityService extends CrudServiceMocked<TestEntity> {
+        private final List<Long> deletedIds = new ArrayList<>();
+        private int bulkDeleteCount;
+        private boolean failing;
+
+        @Override
+        public BatchSaveResult<TestEntity> saveAllChecked(Collection<TestEntity> entities) {
+            if (failing) {
+                throw new IllegalStateException("Database not available");
+            }
+            return super.saveAllChecked(entities);
+        }
+
+        @Override
+        public void delete(Long id) {
+            deletedIds.add(id);
+            super.delete(id);
+        }
+
+        @Override
+        public int deleteByIds(Collection<Long> ids, boolean evict) {
+            bulkDeleteCount++;
+            return super.deleteByIds(ids, evict);
+        }
+
+        @Override
+        public TestEntity create() {
+            return new TestEntity();
+        }
+
+        @Override
+        public Class<TestEntity> getModelClass() {
+            return TestEntity.class;
+        }
+    }
+
+    private static class TestEntityController extends CrudTableController<TestEntity> {
+        private transient ExecutorService executor;
+        private boolean bulkDelete;
+        private int asyncPageSize = 100;
+        
+        @Override
+        protected int getAsyncPageSize() {
+            return asyncPageSize;
+        }
+        private List<String> exportProperties;
+        
+        @Override
+        protected List<String> getExportProperties() {
+            return exportProperties != null ? exportProperties : super.getExportProperties();
+        }
+        
+        @Override
+        protected boolean isBulkDelete() {
+            return bulkDelete;
+        }
+        
+        @Override
+        protected ExecutorService getAsyncExecutor() {
+            return executor;
+        }
+        
+        @Override
+        protected CrudService<TestEntity> getService() {
+            return service;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2015 CrudFaces / Nicolas Hofstetter (codebulb.ch).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package ch.codebulb.crudfaces.controller;
+
+import ch.codebulb.crudfaces.model.CrudEntity;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Nicolas Hofstetter (codebulb.ch)
+ * @since 0.2
+ */
+public class DirtyTrackerTest {
+    private DirtyTracker<TestEntity> tracker;
+    private TestEntity entity;
+
+    @Before
+    public void init() {
+        tracker = new DirtyTracker<>();
+        entity = new TestEntity();
+        entity.setId(1L);
+        entity.name = "name";
+        entity.date = new Date(0);
+        entity.calendar = Calendar.getInstance();
+        entity.address = new Address();
+        entity.address.street = "street";
+        entity.tags.add("tag");
+        entity.attributes.put("key", new Address());
+        tracker.snapshot(entity);
+    }
+
+    @Test
+    public void testUnchanged() {
+        assertFalse(tracker.isDirty(entity));
+    }
+
+    @Test
+    public void testNew() {
+        TestEntity added = new TestEntity();
+        added.setId(-1L);
+        tracker.snapshot(added);
+        assertTrue(tracker.isDirty(added));
+    }
+
+    @Test
+    public void testFieldChanged() {
+        entity.name = "changed";
+        assertTrue(tracker.isDirty(entity));
+    }
+
+    @Test
+    public void testDateChangedInPlace() {
+        entity.date.setTime(1);
+        assertTrue(tracker.isDirty(entity));
+    }
+
+    @Test
+    public void testCalendarChangedInPlace() {
+        entity.calendar.add(Calendar.DAY_OF_MONTH, 1);
+        assertTrue(tracker.isDirty(entity));
+    }
+
+    @Test
+    public void testEmbeddableChangedInPlace() {
+        entity.address.street = "changed";
+        assertTrue(tracker.isDirty(entity));
+    }
+
+    @Test
+    public void testCollectionChangedInPlace() {
+        entity.tags.add("other");
+        assertTrue(tracker.isDirty(entity));
+    }
+
+    @Test
+    public void testMapValueChangedInPlace() {
+        entity.attributes.get("key").street = "changed";
+        assertTrue(tracker.isDirty(entity));
+    }
+
+    @Test
+    public void testProviderCollectionUnchanged() {
+        TestEntity other = new TestEntity();
+        other.setId(2L);
+        other.association = new ProviderList();
+        other.association.add(entity);
+        tracker.snapshot(other);
+        assertFalse(tracker.isDirty(other));
+    }
+
+    @Test
+    public void testProviderCollectionChangedInPlace() {
+        TestEntity other = new TestEntity();
+        other.setId(2L);
+        other.association = new ProviderList();
+        tracker.snapshot(other);
+        other.association.add(entity);
+        assertTrue(tracker.isDirty(other));
+    }
+
+    @Test
+    public void testOtherJdkValueComparedByIdentity() {
+        TestEntity other = new TestEntity();
+        other.setId(2L);
+        other.buffers = new Object[]{new StringBuilder("value")};
+        tracker.snapshot(other);
+        assertFalse(tracker.isDirty(other));
+        other.buffers = new Object[]{new StringBuilder("value")};
+        assertTrue(tracker.isDirty(other));
+    }
+
+    @Test
+    public void testCycle() {
+        entity.address.next = entity.address;
+        tracker.snapshot(entity);
+        assertTrue(tracker.isDirty(entity));
+    }
+
+    public static class TestEntity extends CrudEntity {
+        private String name;
+        private Date date;
+        private Calendar calendar;
+        private Address address;
+        private List<String> tags = new ArrayList<>();
+        private Map<String, Address> attributes = new HashMap<>();
+        private List<TestEntity> association;
+        private Object[] buffers;
+    }
+
+    public static class Address {
+        private String street;
+        private Address next;
+    }
+
+    // simulates a collection implementation of the JPA provider
+    private static class ProviderList extends ArrayList<TestEntity> {
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2015 CrudFaces / Nicolas Hofstetter (codebulb.ch).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package ch.codebulb.crudfaces.controller;
+
+import ch.codebulb.crudfaces.model.CrudEntity;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Nicolas Hofstetter (codebulb.ch)
+ * @since 0.2
+ */
+public class EntityListTest {
+    private EntityList<TestEntity> list;
+    
+    @Before
+    public void init() {
+        list = new EntityList<>(Arrays.asList(entity(1L), entity(2L), entity(3L), entity(4L)));
+    }
+    
+    @Test
+    public void testRemoveByEntityKeepsOrder() {
+        assertTrue(list.remove(entity(2L)));
+        assertFalse(list.remove(entity(2L)));
+        
+        assertEquals(3, list.size());
+        assertIds(list, 1L, 3L, 4L);
+        assertEquals(1, list.indexOf(entity(3L)));
+    }
+    
+    @Test
+    public void testRemoveAll() {
+        assertTrue(list.removeAll(Arrays.asList(entity(1L), entity(3L), entity(5L))));
+        
+        assertIds(list, 2L, 4L);
+        assertFalse(list.contains(entity(1L)));
+        assertTrue(list.contains(entity(4L)));
+    }
+    
+    @Test
+    public void testGetAndRemoveById() {
+        assertEquals(Long.valueOf(3L), list.getById(3L).getId());
+        assertEquals(Long.valueOf(3L), list.removeById(3L).getId());
+        assertNull(list.getById(3L));
+        assertNull(list.removeById(3L));
+        assertIds(list, 1L, 2L, 4L);
+    }
+    
+    @Test
+    public void testAddAndSetAreIndexed() {
+        list.add(entity(5L));
+        list.add(0, entity(0L));
+        list.set(1, entity(6L));
+        
+        assertIds(list, 0L, 6L, 2L, 3L, 4L, 5L);
+        assertEquals(0, list.indexOf(entity(0L)));
+        assertEquals(5, list.indexOf(entity(5L)));
+        assertNull(list.getById(1L));
+        assertNotNull(list.getById(6L));
+    }
+    
+    @Test
+    public void testEntitiesWithoutId() {
+        TestEntity newEntity = entity(null);
+        list.add(newEntity);
+        
+        assertTrue(list.contains(newEntity));
+        assertTrue(list.remove(newEntity));
+        assertFalse(list.contains(newEntity));
+        assertFalse(list.remove(null));
+        assertEquals(4, list.size());
+    }
+    
+    @Test
+    public void testReindexAfterIdChange() {
+        TestEntity newEntity = entity(null);
+        list.add(newEntity);
+        newEntity.setId(7L);
+        list.reindex();
+        
+        assertSame(newEntity, list.getById(7L));
+    }
+    
+    @Test
+    public void testSerialization() throws Exception {
+        list.remove(entity(1L));
+        
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(list);
+        }
+        EntityList<TestEntity> deserialized;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            deserialized = (EntityList<TestEntity>) in.readObject();
+        }
+        
+        assertIds(deserialized, 2L, 3L, 4L);
+        assertNotNull(deserialized.getById(3L));
+    }
+    
+    private static void assertIds(List<TestEntity> actual, Long... expected) {
+        List<Long> ids = new ArrayList<>();
+        for (TestEntity entity : actual) {
+            ids.add(entity.getId());
+        }
+        assertEquals(Arrays.asList(expected), ids);
+    }
+    
+    private static TestEntity entity(Long id) {
+        TestEntity ret = new TestEntity();
+        ret.setId(id);
+        return ret;
+    }
+    
+    public static class TestEntity extends CrudEntity {
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2015 CrudFaces / Nicolas Hofstetter (codebulb.ch).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package ch.codebulb.crudfaces.controller;
+
+import ch.codebulb.crudfaces.model.CrudEntity;
+import ch.codebulb.crudfaces.service.CrudService;
+import ch.codebulb.crudfaces.service.CrudServiceMocked;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Nicolas Hofstetter (codebulb.ch)
+ * @since 0.2
+ */
+public class SimpleCrudControllerTest {
+    private static TestEntityService service;
+
+    private TestEntityController controller;
+
+    @Before
+    public void init() {
+        service = new TestEntityService();
+        service.save(entity("a"));
+        service.save(entity("b"));
+
+        controller = new TestEntityController();
+        controller.initEntities();
+    }
+
+    @Test
+    public void testCompactStateKeepsCurrentEntityChanges() throws Exception {
+        controller.setCompactState(true);
+        TestEntity current = controller.getEntities().get(0);
+        controller.setCurrentEntityId(current.getId());
+        controller.setCurrentEntity(current);
+        current.setName("changed");
+        // modified concurrently
+        TestEntity stored = service.findById(controller.getEntities().get(1).getId());
+        stored.setName("reloaded");
+        service.save(stored);
+
+        TestEntityController deserialized = serializeAndDeserialize(controller);
+
+        assertEquals(2, deserialized.getEntities().size());
+        TestEntity changed = deserialized.getEntities().get(0);
+        assertEquals("changed", changed.getName());
+        assertSame(deserialized.getCurrentEntity(), changed);
+        // other entities are reloaded from the service
+        TestEntity unchanged = deserialized.getEntities().get(1);
+        assertEquals("reloaded", unchanged.getName());
+    }
+
+    @Test
+    public void testCompactStateKeepsNewEntities() throws Exception {
+        controller.setCompactState(true);
+        TestEntity added = entity("new");
+        controller.getEntities().add(added);
+
+        TestEntityController deserialized = serializeAndDeserialize(controller);
+
+        assertEquals(3, deserialized.getEntities().size());
+        assertEquals("new", deserialized.getEntities().get(2).getName());
+        assertNull(deserialized.getEntities().get(2).getId());
+    }
+
+    private static <T> T serializeAndDeserialize(T object) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return (T) in.readObject();
+        }
+    }
+
+    private static TestEntity entity(String name) {
+        TestEntity ret = new TestEntity();
+        ret.setName(name);
+        return ret;
+    }
+
+    public static class TestEntity extends CrudEntity {
+        private String name;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+
+    private static class TestEntityService extends CrudServiceMocked<TestEntity> {
+        @Override
+        public TestEntity create() {
+            return new TestEntity();
+        }
+
+        @Override
+        public Class<TestEntity> getModelClass() {
+            return TestEntity.class;
+        }
+    }
+
+    private static class TestEntityController extends SimpleCrudController<TestEntity> {
+        @Override
+        protected CrudService<TestEntity> getService() {
+            return service;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2015 CrudFaces / Nicolas Hofstetter (codebulb.ch).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package ch.codebulb.crudfaces.renderer;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Nicolas Hofstetter (codebulb.ch)
+ * @since 0.2
+ */
+public class BootstrapFormLayoutProviderTest {
+    private final BootstrapFormLayoutProvider provider = new BootstrapFormLayoutProvider();
+    
+    @Test
+    public void testStyleClassesEqualGridUnits() {
+        for (int md = -12; md <= 24; md++) {
+            for (int xl = -12; xl <= 24; xl++) {
+                assertEquals(provider.createUnits(md, xl).getStyleClasses(), provider.getUnitsStyleClasses(md, xl));
+                assertEquals(provider.createUnits(0, md, md, xl).getStyleClasses(), provider.getStyleClasses(0, md, md, xl, false));
+            }
+            assertEquals(provider.createUnitsForXLarge(md).getStyleClasses(), provider.getUnitsForXLargeStyleClasses(md));
+        }
+        assertEquals("col-xs-offset-0 col-sm-offset-8 col-lg-offset-4", provider.getStyleClasses(0, 8, 8, 4, true));
+        assertEquals(provider.createUnits(5000, 1, 1, 1).getStyleClasses(), provider.getStyleClasses(5000, 1, 1, 1, false));
+    }
+    
+    @Test
+    public void testStyleClassesAreShared() {
+        assertSame(provider.getUnitsStyleClasses(4, 8), provider.getUnitsStyleClasses(4, 8));
+        assertNotSame(provider.getStyleClasses(0, 8, 8, 4, false), provider.getStyleClasses(0, 8, 8, 4, true));
+    }
+}
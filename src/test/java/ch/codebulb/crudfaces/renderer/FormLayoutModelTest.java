@@ -183,6 +183,23 @@ public class FormLayoutModelTest {
         assertOriginalRatiosEqual(model.getRows().get(1).getGroups().get(0), 4, 6, 2);
     }
     
+    @Test
+    public void testSkeleton() {
+        FormLayoutSkeleton skeleton = FormLayoutSkeleton.get(FORM_LAYOUT_PROVIDER, 2, "4 6 2", new int[]{1, 5, 1, 1, 1, 1});
+        
+        assertSame(skeleton, FormLayoutSkeleton.get(FORM_LAYOUT_PROVIDER, 2, "4 6 2", new int[]{1, 5, 1, 1, 1, 1}));
+        assertEquals(2, skeleton.getRows().size());
+        assertEquals(1, skeleton.getRows().get(0).getGroups().size());
+        assertEquals("form-group col-xs-12 col-sm-12 col-lg-12 cf-formlayout-group", skeleton.getRows().get(0).getGroups().get(0).getStyleClass());
+        List<FormLayoutSkeleton.Cell> cells = skeleton.getRows().get(0).getGroups().get(0).getCells();
+        assertEquals(2, cells.size());
+        assertEquals(1, cells.get(1).getIndex());
+        assertEquals("col-xs-12 col-sm-8 col-lg-10 cf-formlayout-cell", cells.get(1).getStyleClass());
+        // the trailing incomplete group is not part of the skeleton
+        assertEquals(3, skeleton.getRows().get(1).getGroups().get(0).getCells().size());
+        assertEquals(4, skeleton.getRows().get(1).getGroups().get(0).getCells().get(2).getIndex());
+    }
+    
     private static void assertRatiosEqual(List<Group> actualGroups, int... expectedRatios) {
         assertEquals(expectedRatios.length, actualGroups.size());
         for (int i = 0; i < expectedRatios.length; i++) {
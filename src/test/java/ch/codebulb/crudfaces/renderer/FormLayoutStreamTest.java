@@ -0,0 +1,101 @@
+/*
+ * Copyright 2015 CrudFaces / Nicolas Hofstetter (codebulb.ch).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package ch.codebulb.crudfaces.renderer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Nicolas Hofstetter (codebulb.ch)
+ * @since 0.2
+ */
+public class FormLayoutStreamTest {
+    private static final int RESOLUTION = new BootstrapFormLayoutProvider().getResolution();
+    
+    @Test
+    public void testEqualsModel() throws IOException {
+        assertEqualsModel(2, new int[]{4, 6, 2}, 1, 1, 1, 1, 1, 1, 1, 1, 1);
+        assertEqualsModel(2, new int[]{4, 6, 2}, 1, 5, 1, 1, 1);
+        assertEqualsModel(2, new int[]{4, 6, 2}, 1, 1, 1, 1);
+        assertEqualsModel(1, new int[]{4, 8}, 1, 1, 2, 1);
+        assertEqualsModel(1, new int[]{4, 8});
+        
+        Random random = new Random(42);
+        for (int i = 0; i < 100; i++) {
+            int[] colspans = new int[random.nextInt(30)];
+            for (int j = 0; j < colspans.length; j++) {
+                colspans[j] = 1 + random.nextInt(3);
+            }
+            assertEqualsModel(1 + random.nextInt(3), new int[]{4, 8}, colspans);
+            assertEqualsModel(1 + random.nextInt(3), new int[]{4, 6, 2}, colspans);
+        }
+    }
+    
+    private static void assertEqualsModel(int groups, int[] groupRatios, int... colspans) throws IOException {
+        FormLayoutModel model = new FormLayoutModel(groups, groupRatios, RESOLUTION);
+        for (int colspan : colspans) {
+            model.add(null, colspan);
+        }
+        List<String> expected = new ArrayList<>();
+        int index = 0;
+        for (FormLayoutModel.Row row : model.getRows()) {
+            expected.add("row");
+            for (FormLayoutModel.Group group : row.getGroups()) {
+                expected.add("group " + group.getRatio());
+                for (FormLayoutModel.Comp comp : group.getComps()) {
+                    expected.add("cell " + index++ + " " + comp.getSingleGroupRatio() + " " + comp.getRatio());
+                }
+                expected.add("/group");
+            }
+            expected.add("/row");
+        }
+        
+        final List<String> actual = new ArrayList<>();
+        FormLayoutStream<Integer> stream = new FormLayoutStream<>(groups, groupRatios, RESOLUTION, new FormLayoutStream.Visitor<Integer>() {
+            @Override
+            public void startRow() {
+                actual.add("row");
+            }
+
+            @Override
+            public void startGroup(int ratio) {
+                actual.add("group " + ratio);
+            }
+
+            @Override
+            public void cell(Integer cell, int singleGroupRatio, int ratio) {
+                actual.add("cell " + cell + " " + singleGroupRatio + " " + ratio);
+            }
+
+            @Override
+            public void endGroup() {
+                actual.add("/group");
+            }
+
+            @Override
+            public void endRow() {
+                actual.add("/row");
+            }
+        });
+        for (int i = 0; i < colspans.length; i++) {
+            stream.add(i, colspans[i]);
+        }
+        stream.finish();
+        
+        assertEquals(expected, actual);
+    }
+}
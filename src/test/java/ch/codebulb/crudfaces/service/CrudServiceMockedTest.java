@@ -0,0 +1,387 @@
+/*
+ * Copyright 2015 CrudFaces / Nicolas Hofstetter (codebulb.ch).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package ch.codebulb.crudfaces.service;
+
+import ch.codebulb.crudfaces.model.CrudEntity;
+import ch.codebulb.crudfaces.model.VersionedCrudEntity;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.persistence.EntityManager;
+import javax.persistence.OptimisticLockException;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Nicolas Hofstetter (codebulb.ch)
+ * @since 0.2
+ */
+public class CrudServiceMockedTest {
+    private TestEntityService service;
+    
+    @Before
+    public void init() {
+        service = new TestEntityService();
+    }
+    
+    @Test
+    public void testConcurrentSave() throws Exception {
+        final int threads = 8;
+        final int entitiesPerThread = 1000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<List<Long>>> results = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            results.add(executor.submit(new Callable<List<Long>>() {
+                @Override
+                public List<Long> call() {
+                    List<Long> ret = new ArrayList<>();
+                    for (int j = 0; j < entitiesPerThread; j++) {
+                        ret.add(service.save(entity("name")).getId());
+                    }
+                    return ret;
+                }
+            }));
+        }
+        Set<Long> ids = new HashSet<>();
+        for (Future<List<Long>> result : results) {
+            ids.addAll(result.get());
+        }
+        executor.shutdown();
+        
+        assertEquals(threads * entitiesPerThread, ids.size());
+        assertEquals(threads * entitiesPerThread, service.countAll());
+    }
+    
+    @Test
+    public void testFindFilteredSortedPaged() {
+        service.save(entity("Bob"));
+        service.save(entity("alice"));
+        service.save(entity("Carol"));
+        service.save(entity("Alfred"));
+        
+        Map<String, Object> filters = new HashMap<>();
+        filters.put("name", "al");
+        
+        assertNames(service.find(0, 10, Sort.asc("name"), filters), "Alfred", "alice");
+        assertNames(service.find(1, 2, Sort.desc("name"), null), "Carol", "Bob");
+        assertEquals(2, service.count(filters));
+    }
+    
+    @Test
+    public void testFindAfter() {
+        service.save(entity("b"));
+        service.save(entity("a"));
+        TestEntity c = service.save(entity("c"));
+        service.save(entity("a"));
+        
+        List<TestEntity> firstPage = service.findAfter(null, 2, Sort.asc("name"));
+        assertNames(firstPage, "a", "a");
+        assertNames(service.findAfter(firstPage.get(1).getId(), 2, Sort.asc("name")), "b", "c");
+        assertTrue(service.findAfter(c.getId(), 2, Sort.asc("name")).isEmpty());
+    }
+    
+    @Test
+    public void testFindAfterAndBeforeInIdOrder() {
+        TestEntity alfred = service.save(entity("Alfred"));
+        service.save(entity("Bob"));
+        TestEntity alice = service.save(entity("alice"));
+        service.save(entity("Carol"));
+        TestEntity albert = service.save(entity("Albert"));
+        
+        Map<String, Object> filters = new HashMap<>();
+        filters.put("name", "al");
+        
+        assertNames(service.findAfter(null, 2, null, filters), "Alfred", "alice");
+        assertNames(service.findAfter(alice.getId(), 2, null, filters), "Albert");
+        assertNames(service.findBefore(albert.getId(), 1, null, filters), "alice");
+        assertNames(service.findBefore(albert.getId(), 5, null, null), "Alfred", "Bob", "alice", "Carol");
+        assertTrue(service.findBefore(alfred.getId(), 2, null, filters).isEmpty());
+    }
+    
+    @Test
+    public void testSaveAllInBatches() {
+        TestEntity existing = service.save(entity("existing"));
+        existing.setName("updated");
+        service.setBatchSize(2);
+        
+        List<TestEntity> saved = service.saveAll(Arrays.asList(entity("a"), entity("b"), existing, entity("c"), entity("d")));
+        
+        // returned in order across batch boundaries, with ids assigned to new entities
+        assertNames(saved, "a", "b", "updated", "c", "d");
+        assertEquals(existing.getId(), saved.get(2).getId());
+        Set<Long> ids = new HashSet<>();
+        for (TestEntity entity : saved) {
+            assertNotNull(entity.getId());
+            ids.add(entity.getId());
+        }
+        assertEquals(5, ids.size());
+        assertEquals(5, service.countAll());
+        assertEquals("updated", service.findById(existing.getId()).getName());
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBatchSize() {
+        service.setBatchSize(0);
+    }
+    
+    @Test
+    public void testCountExact() {
+        service.save(entity("a"));
+        assertEquals(1, service.countAll());
+        service.save(entity("b"));
+        assertEquals(2, service.countAll());
+        assertEquals(2, service.exactCounts);
+    }
+    
+    @Test
+    public void testCountCached() {
+        service.countMode = CrudService.CountMode.CACHED;
+        TestEntity a = service.save(entity("a"));
+        assertEquals(1, service.countAll());
+        assertEquals(1, service.countAll());
+        assertEquals(1, service.exactCounts);
+        
+        // every write discards the cached count
+        service.saveAll(Arrays.asList(entity("b"), entity("c")));
+        assertEquals(3, service.countAll());
+        service.delete(a.getId());
+        assertEquals(2, service.countAll());
+        service.deleteByIds(Arrays.asList(2L));
+        assertEquals(1, service.countAll());
+        service.save(entity("d"));
+        assertEquals(2, service.countAll());
+        assertEquals(5, service.exactCounts);
+        
+        // filtered counts are never cached
+        Map<String, Object> filters = new HashMap<>();
+        filters.put("name", "d");
+        assertEquals(1, service.count(filters));
+        assertEquals(2, service.count(new HashMap<String, Object>()));
+    }
+    
+    @Test
+    public void testCountApproximate() {
+        service.countMode = CrudService.CountMode.APPROXIMATE;
+        service.save(entity("a"));
+        service.countEstimator = new CountEstimator() {
+            @Override
+            public long estimateCount(EntityManager em, Class<?> entityType) {
+                return 42;
+            }
+        };
+        assertEquals(42, service.countAll());
+        assertEquals(0, service.exactCounts);
+        
+        // falls back to an exact count if no estimate is available
+        service.countEstimator = new CountEstimator() {
+            @Override
+            public long estimateCount(EntityManager em, Class<?> entityType) {
+                return -1;
+            }
+        };
+        assertEquals(1, service.countAll());
+        assertEquals(1, service.exactCounts);
+    }
+    
+    @Test(expected = IllegalStateException.class)
+    public void testCountApproximateWithoutEstimator() {
+        service.countMode = CrudService.CountMode.APPROXIMATE;
+        service.countAll();
+    }
+    
+    @Test
+    public void testFindProjected() {
+        service.save(entity("Bob"));
+        TestEntity alice = service.save(entity("alice"));
+        service.save(entity("Alfred"));
+        
+        Map<String, Object> filters = new HashMap<>();
+        filters.put("name", "al");
+        List<NameProjection> projections = service.findProjected(NameProjection.class, Arrays.asList("id", "name"), 1, 10, Sort.asc("name"), filters);
+        
+        assertEquals(1, projections.size());
+        assertEquals(alice.getId(), projections.get(0).id);
+        assertEquals("alice", projections.get(0).name);
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testFindProjectedWithoutMatchingConstructor() {
+        service.save(entity("Bob"));
+        service.findProjected(NameProjection.class, Arrays.asList("name"), 0, 10, null, null);
+    }
+    
+    @Test
+    public void testSaveIncrementsVersion() {
+        VersionedEntityService versionedService = new VersionedEntityService();
+        TestVersionedEntity entity = versionedService.save(new TestVersionedEntity());
+        assertEquals(0L, (long) entity.getVersion());
+        versionedService.save(entity);
+        assertEquals(1L, (long) entity.getVersion());
+    }
+    
+    @Test(expected = OptimisticLockException.class)
+    public void testSaveStaleVersion() {
+        VersionedEntityService versionedService = new VersionedEntityService();
+        TestVersionedEntity entity = versionedService.save(new TestVersionedEntity());
+        versionedService.save(copy(entity));
+        versionedService.save(entity);
+    }
+    
+    @Test
+    public void testConcurrentModificationOfEntitiesFound() {
+        VersionedEntityService versionedService = new VersionedEntityService();
+        Long id = versionedService.save(new TestVersionedEntity()).getId();
+        TestVersionedEntity first = versionedService.findById(id);
+        TestVersionedEntity second = versionedService.findById(id);
+        assertNotSame(first, second);
+        
+        versionedService.save(first);
+        BatchSaveResult<TestVersionedEntity> result = versionedService.saveAllChecked(Arrays.asList(second));
+        assertEquals(Collections.singleton(id), result.getConflictedIds());
+        assertEquals(1L, (long) versionedService.findById(id).getVersion());
+    }
+    
+    @Test
+    public void testSaveAllChecked() {
+        VersionedEntityService versionedService = new VersionedEntityService();
+        TestVersionedEntity modified = versionedService.save(new TestVersionedEntity());
+        TestVersionedEntity deleted = versionedService.save(new TestVersionedEntity());
+        TestVersionedEntity unchanged = versionedService.save(new TestVersionedEntity());
+        // concurrent modifications
+        versionedService.save(copy(modified));
+        versionedService.delete(deleted.getId());
+        
+        TestVersionedEntity added = new TestVersionedEntity();
+        BatchSaveResult<TestVersionedEntity> result = versionedService.saveAllChecked(Arrays.asList(modified, deleted, unchanged, added));
+        
+        assertEquals(new HashSet<>(Arrays.asList(modified.getId(), deleted.getId())), result.getConflictedIds());
+        assertEquals(Arrays.asList(unchanged, added), result.getSaved());
+        assertEquals(1L, (long) unchanged.getVersion());
+        assertEquals(0L, (long) added.getVersion());
+        // conflicting entities are kept as they are
+        assertEquals(0L, (long) modified.getVersion());
+        assertEquals(1L, (long) versionedService.findById(modified.getId()).getVersion());
+    }
+    
+    @Test
+    public void testSortIsImmutable() {
+        Sort sort = Sort.asc("name");
+        int hashCode = sort.hashCode();
+        Sort chained = sort.thenDesc("id");
+        
+        assertEquals(1, sort.getFields().size());
+        assertEquals(hashCode, sort.hashCode());
+        assertEquals(Arrays.asList(new Sort.Field("name", true), new Sort.Field("id", false)), chained.getFields());
+        assertEquals(Sort.asc("name").thenDesc("id"), chained);
+    }
+    
+    private static void assertNames(List<TestEntity> actual, String... expected) {
+        List<String> names = new ArrayList<>();
+        for (TestEntity entity : actual) {
+            names.add(entity.getName());
+        }
+        assertEquals(Arrays.asList(expected), names);
+    }
+    
+    private static TestEntity entity(String name) {
+        TestEntity ret = new TestEntity();
+        ret.setName(name);
+        return ret;
+    }
+    
+    public static class TestEntity extends CrudEntity {
+        private String name;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+    
+    public static class NameProjection {
+        private final Long id;
+        private final String name;
+        
+        public NameProjection(Long id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+    }
+    
+    private static TestVersionedEntity copy(TestVersionedEntity entity) {
+        TestVersionedEntity ret = new TestVersionedEntity();
+        ret.setId(entity.getId());
+        ret.setVersion(entity.getVersion());
+        return ret;
+    }
+    
+    public static class TestVersionedEntity extends VersionedCrudEntity {
+    }
+    
+    private static class VersionedEntityService extends CrudServiceMocked<TestVersionedEntity> {
+        @Override
+        public TestVersionedEntity create() {
+            return new TestVersionedEntity();
+        }
+
+        @Override
+        public Class<TestVersionedEntity> getModelClass() {
+            return TestVersionedEntity.class;
+        }
+    }
+    
+    private static class TestEntityService extends CrudServiceMocked<TestEntity> {
+        private CrudService.CountMode countMode = CrudService.CountMode.EXACT;
+        private CountEstimator countEstimator;
+        private int exactCounts;
+        
+        @Override
+        protected CountMode getCountMode() {
+            return countMode;
+        }
+        
+        @Override
+        protected CountEstimator getCountEstimator() {
+            return countEstimator;
+        }
+        
+        @Override
+        protected long countAllExact() {
+            exactCounts++;
+            return super.countAllExact();
+        }
+        
+        @Override
+        public TestEntity create() {
+            return new TestEntity();
+        }
+
+        @Override
+        public Class<TestEntity> getModelClass() {
+            return TestEntity.class;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2015 CrudFaces / Nicolas Hofstetter (codebulb.ch).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package ch.codebulb.crudfaces.service;
+
+import ch.codebulb.crudfaces.model.CrudEntity;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Nicolas Hofstetter (codebulb.ch)
+ * @since 0.2
+ */
+public class EntityFilterTest {
+    private List<TestEntity> entities;
+    private Map<String, Object> filterValues;
+
+    @Before
+    public void init() {
+        entities = Arrays.asList(
+                entity(1, "Alice", true, Level.HIGH, new Date(1000)),
+                entity(2, "bob", false, Level.LOW, new Date(2000)),
+                entity(3, "Albert", null, Level.LOW, new Date(3000)),
+                entity(4, "Carol", false, Level.HIGH, null));
+        filterValues = new HashMap<>();
+    }
+
+    @Test
+    public void testEmpty() {
+        filterValues.put("name", "");
+        filterValues.put("active", "2");
+        filterValues.put("level", new ArrayList<>());
+        filterValues.put("created", new Date[2]);
+        EntityFilter<TestEntity> filter = compile();
+        assertTrue(filter.isEmpty());
+        assertEquals(entities, filter.filter(entities));
+    }
+
+    @Test
+    public void testTriState() {
+        filterValues.put("active", "0");
+        assertIds(compile().filter(entities), 2, 3, 4);
+        filterValues.put("active", "1");
+        assertIds(compile().filter(entities), 1, 3);
+    }
+
+    @Test
+    public void testText() {
+        filterValues.put("name", "al");
+        assertIds(compile().filter(entities), 1, 3);
+    }
+
+    @Test
+    public void testEnum() {
+        filterValues.put("level", "HIGH");
+        assertIds(compile().filter(entities), 1, 4);
+        filterValues.put("level", Arrays.asList("LOW"));
+        assertIds(compile().filter(entities), 2, 3);
+    }
+
+    @Test
+    public void testDateRange() {
+        filterValues.put("created", new Date[]{new Date(2000), null});
+        assertIds(compile().filter(entities), 2, 3);
+        filterValues.put("created", new Date[]{new Date(1000), new Date(2000)});
+        assertIds(compile().filter(entities), 1, 2);
+    }
+
+    @Test
+    public void testTextIsLocaleIndependent() {
+        Locale defaultLocale = Locale.getDefault();
+        Locale.setDefault(new Locale("tr"));
+        try {
+            filterValues.put("name", "ALI");
+            assertIds(compile().filter(entities), 1);
+        }
+        finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    @Test
+    public void testTextOnNonTextProperty() {
+        filterValues.put("id", "2");
+        assertIds(compile().filter(entities), 2);
+        filterValues.put("id", Arrays.asList("1", "3"));
+        assertIds(compile().filter(entities), 1, 3);
+        // not convertible: nothing matches
+        filterValues.put("id", "x");
+        assertIds(compile().filter(entities));
+    }
+
+    private EntityFilter<TestEntity> compile() {
+        return EntityFilter.compile(TestEntity.class, filterValues);
+    }
+
+    private static void assertIds(List<TestEntity> actual, long... expected) {
+        List<Long> expectedIds = new ArrayList<>();
+        for (long id : expected) {
+            expectedIds.add(id);
+        }
+        List<Long> ids = new ArrayList<>();
+        for (TestEntity entity : actual) {
+            ids.add(entity.getId());
+        }
+        assertEquals(expectedIds, ids);
+    }
+
+    private static TestEntity entity(long id, String name, Boolean active, Level level, Date created) {
+        TestEntity ret = new TestEntity();
+        ret.setId(id);
+        ret.setName(name);
+        ret.setActive(active);
+        ret.setLevel(level);
+        ret.setCreated(created);
+        return ret;
+    }
+
+    public static enum Level {
+        LOW, HIGH
+    }
+
+    public static class TestEntity extends CrudEntity {
+        private String name;
+        private Boolean active;
+        private Level level;
+        private Date created;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public Boolean getActive() {
+            return active;
+        }
+
+        public void setActive(Boolean active) {
+            this.active = active;
+        }
+
+        public Level getLevel() {
+            return level;
+        }
+
+        public void setLevel(Level level) {
+            this.level = level;
+        }
+
+        public Date getCreated() {
+            return created;
+        }
+
+        public void setCreated(Date created) {
+            this.created = created;
+        }
+    }
+}